@@ -1,29 +1,64 @@
 package googol.barrel;
 
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.rmi.Naming;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
 
 import googol.common.BarrelService;
+import googol.common.Query;
+import googol.common.Shards;
+import googol.common.Tokenizer;
 import googol.common.dto.PageDTO;
 import googol.common.dto.SearchResult;
 import googol.downloader.InvertedIndex;
-import googol.downloader.PageInfo;
+import googol.downloader.StoredPage;
 
 public class Barrel extends UnicastRemoteObject implements BarrelService {
 
     private static final int PAGE_SIZE = 10;
+    private static final int RANK_CACHE_SIZE = 256;
+    private static final long RANK_CACHE_TTL_MS = 5000;
+    private static final double PROXIMITY_WEIGHT = 1.0;//palavras todas seguidas valem tanto como ~1.7x os links
     private final InvertedIndex indexedItems = new InvertedIndex();
+    private Tokenizer tokenizer = Tokenizer.DEFAULT;
+    private PageRank pageRank;//null se rank.intervalMs <= 0
+    //query normalizada -> top-k já ordenado (LRU)
+    private final Map<String, RankedQuery> rankCache = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, RankedQuery> eldest) {
+                    return size() > RANK_CACHE_SIZE;
+                }
+            });
     private String barrelName;
-    private String dataFile;
+    private String dataFile;//formato antigo (ObjectOutputStream), só lido se ainda não houver snapshots
+
+    //persistencia em dataDir: snapshots index-<segmento>.gidx + log com tudo o que chegou depois
+    private Path dataDir;
+    private IndexLog log;
+    private final ReentrantReadWriteLock logLock = new ReentrantReadWriteLock();
+    private volatile long snapshotVersion;
+
+    private record RankedQuery(long version, long createdAt, int totalHits, int[] top, double[] scores) {}
 
     public Barrel() throws RemoteException {
         super(); 
@@ -37,48 +72,210 @@ public class Barrel extends UnicastRemoteObject implements BarrelService {
     @Override
     public void sendPage(PageDTO page) throws RemoteException {
         if (page == null || page.url == null) return;
-        Set<String> outgoing = (page.outgoing == null) ? Collections.emptySet() : page.outgoing;
-        indexedItems.addToIndex(page.url, page.title, page.text, outgoing);
+        //read lock: vários sendPage em paralelo, mas o rotate do snapshot espera que acabem
+        logLock.readLock().lock();
+        try {
+            indexedItems.addPages(List.of(page));
+            if (log != null) log.append(page);
+        } catch (IOException e) {
+            throw new RemoteException("Failed to log page " + page.url, e);
+        } finally {
+            logLock.readLock().unlock();
+        }
+    }
+
+    //um lote numa só passagem pelo índice e pelo log; as páginas com ack a false devem ser reenviadas
+    @Override
+    public boolean[] sendPages(PageDTO[] pages) throws RemoteException {
+        boolean[] acks = new boolean[pages.length];
+        List<PageDTO> valid = new ArrayList<>(pages.length);
+        for (int i = 0; i < pages.length; i++) {
+            if (pages[i] == null || pages[i].url == null) {
+                acks[i] = true;//não há nada a indexar, reenviar não adianta
+                continue;
+            }
+            valid.add(pages[i]);
+        }
+        if (applyPages(valid)) Arrays.fill(acks, true);
+        return acks;
+    }
+
+    //índice + log sob o read lock; false se o log falhou (as páginas ficam indexadas, quem mandou reenvia)
+    private boolean applyPages(List<PageDTO> pages) {
+        logLock.readLock().lock();
+        try {
+            indexedItems.addPages(pages);
+            if (log != null) log.appendAll(pages);
+            return true;
+        } catch (IOException e) {
+            //já estão no índice mas não no log: indexar outra vez não muda nada
+            System.err.println("[Barrel] Failed to log batch of " + pages.size() + " pages: " + e.getMessage());
+            return false;
+        } finally {
+            logLock.readLock().unlock();
+        }
+    }
+
+    //grava o índice sem parar as pesquisas e apaga os segmentos do log que ficaram incluídos
+    private void snapshot() {
+        long version = indexedItems.version();
+        if (version == snapshotVersion) return;
+        try {
+            long segment;
+            //depois do rotate, tudo o que está nos segmentos antigos já está no índice
+            logLock.writeLock().lock();
+            try {
+                segment = log.rotate();
+            } finally {
+                logLock.writeLock().unlock();
+            }
+            Path target = snapshotPath(dataDir, segment);
+            Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            indexedItems.saveToDisk(tmp.toString());
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            log.deleteBefore(segment);
+            deleteSnapshotsBefore(dataDir, segment);
+            snapshotVersion = version;
+            System.out.println("[Barrel] Snapshot saved to '" + target + "' (" + indexedItems.totalPages() + " pages)");
+        } catch (Exception e) {
+            System.err.println("[Barrel] Snapshot failed: " + e.getMessage());
+        }
+    }
+
+    //tira das postings o que os re-crawls deixaram de ter (ver InvertedIndex.compact)
+    private void compact() {
+        int pending = indexedItems.tombstones();
+        if (pending == 0) return;
+        try {
+            long t0 = System.nanoTime();
+            int removed = indexedItems.compact();
+            System.out.println("[Barrel] Compaction: removed " + removed + " stale postings/links in "
+                    + (System.nanoTime() - t0) / 1_000_000 + "ms");
+        } catch (Exception e) {
+            System.err.println("[Barrel] Compaction failed: " + e.getMessage());
+        }
+    }
+
+    //o snapshot index-N contém tudo o que está nos segmentos do log anteriores a N
+    private static Path snapshotPath(Path dir, long segment) {
+        return dir.resolve(String.format("index-%012d.gidx", segment));
+    }
+
+    private static List<Long> snapshots(Path dir) throws IOException {
+        List<Long> result = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString())
+                 .filter(n -> n.startsWith("index-") && n.endsWith(".gidx"))
+                 .forEach(n -> result.add(Long.parseLong(n.substring(6, n.length() - 5))));
+        }
+        result.sort(null);
+        return result;
+    }
+
+    //o snapshot que está mapeado pode continuar aberto; em windows o delete falha e tenta-se no próximo
+    private static void deleteSnapshotsBefore(Path dir, long segment) throws IOException {
+        for (long s : snapshots(dir)) {
+            if (s >= segment) continue;
+            try {
+                Files.deleteIfExists(snapshotPath(dir, s));
+            } catch (IOException e) {
+                System.err.println("[Barrel] Could not delete old snapshot " + s + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void syncLog() {
+        try {
+            log.sync();
+        } catch (IOException e) {
+            System.err.println("[Barrel] Log sync failed: " + e.getMessage());
+        }
     }
 
     //gateway -> barrel: search com ranking + paginacao
     @Override
     public SearchResult[] searchWord(String[] terms, int page) throws RemoteException {
         if (terms == null || terms.length == 0) return new SearchResult[0];
+        if (page < 1) page = 1;
 
-        //search
+        //search + rank (só os page*PAGE_SIZE melhores)
         System.out.println("[Barrel] Searching for terms: " + String.join(", ", terms));
-        Set<String> hits = indexedItems.searchWord(terms);
-        System.out.println("[Barrel] Found " + hits.size() + " hits");
-        if (hits.isEmpty()) return new SearchResult[0];
-        int totalHits=hits.size();
-
-        //rank
-        List<String> ranked = new ArrayList<>(hits);
-        ranked.sort(Comparator.comparingInt(indexedItems::incomingLinksCount).reversed());
+        Query query = Query.parse(terms, tokenizer);
+        RankedQuery ranked = rank(query, page * PAGE_SIZE);
+        System.out.println("[Barrel] Found " + ranked.totalHits() + " hits");
+        if (ranked.totalHits() == 0) return new SearchResult[0];
 
         //paginacao
-        int from = Math.max(0, (page - 1) * PAGE_SIZE);
-        int to = Math.min(ranked.size(), from + PAGE_SIZE);
-        if (from >= ranked.size()) return new SearchResult[0];
+        int[] top = ranked.top();
+        int from = (page - 1) * PAGE_SIZE;
+        int to = Math.min(top.length, from + PAGE_SIZE);
+        if (from >= top.length) return new SearchResult[0];
+        return results(query, ranked, from, to);
+    }
 
-        //fazer um PageDTO
-        List<SearchResult> DTO = new ArrayList<>();
-        List<String> sub = ranked.subList(from, to);
+    //gateway -> barrel (sharded): os k melhores deste shard, com score, para o gateway juntar
+    @Override
+    public SearchResult[] searchTop(String[] terms, int k) throws RemoteException {
+        if (terms == null || terms.length == 0 || k <= 0) return new SearchResult[0];
+        Query query = Query.parse(terms, tokenizer);
+        RankedQuery ranked = rank(query, k);
+        return results(query, ranked, 0, Math.min(k, ranked.top().length));
+    }
 
-        for (String u : sub) {
-            PageInfo p = indexedItems.getPage(u);
+    //fazer um PageDTO, só aqui se volta a trabalhar com urls
+    //o texto é um snippet à volta dos termos da query, só para as páginas que vão ser mostradas
+    private SearchResult[] results(Query query, RankedQuery ranked, int from, int to) {
+        Set<String> words = Set.of(query.words);
+        int[] top = ranked.top();
+        List<SearchResult> DTO = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            int d = top[i];
+            String u = indexedItems.urlOf(d);
+            StoredPage p = indexedItems.getPage(d);
+            String title = (p == null) ? "" : p.title();
             SearchResult sr = new SearchResult();
             sr.url = u;
-            sr.title = (p != null && p.title != null && !p.title.isBlank()) ? p.title : u;
-            sr.text = (p != null && p.text != null) ? p.text : "";
-            sr.incomingLinksCount = indexedItems.incomingLinksCount(u);
-            sr.totalResults = totalHits;
+            sr.title = title.isBlank() ? u : title;
+            sr.text = (p == null) ? "" : p.snippet(words, tokenizer);
+            sr.incomingLinksCount = indexedItems.incomingLinksCount(d);
+            sr.score = ranked.scores()[i];
+            sr.totalResults = ranked.totalHits();
             DTO.add(sr);
         }
         return DTO.toArray(SearchResult[]::new);
     }
 
+    //top-k de uma query, reaproveitado entre páginas enquanto o índice não mudar (ou durante RANK_CACHE_TTL_MS)
+    //score = BM25 das palavras + log(1 + qualidade dos links) + proximidade das palavras (ver InvertedIndex.search)
+    //qualidade dos links = PageRank relativo à média; antes do primeiro cálculo, o nº de links de entrada
+    private RankedQuery rank(Query query, int need) {
+        String key = query.key();
+        long version = indexedItems.version();
+        long now = System.currentTimeMillis();
+
+        RankedQuery cached = rankCache.get(key);
+        boolean fresh = cached != null && (cached.version() == version || now - cached.createdAt() < RANK_CACHE_TTL_MS);
+        if (fresh && (cached.top().length >= need || cached.top().length == cached.totalHits())) {
+            return cached;
+        }
+
+        //se já se está a folhear esta query, pedir o dobro para as próximas páginas não recalcularem
+        int k = fresh ? Math.max(need, cached.top().length * 2) : need;
+        InvertedIndex.Hits hits = indexedItems.search(query, k, d -> Math.log1p(linkScore(d)), PROXIMITY_WEIGHT);
+        RankedQuery ranked = new RankedQuery(version, now, hits.total(), hits.docs(), hits.scores());
+        rankCache.put(key, ranked);
+        return ranked;
+    }
+
+    //PageRank x N (média 1); um doc indexado depois do último cálculo fica com 1.0, o prior uniforme 1/N nessa escala
+    //(o nº de incoming links está noutra escala e dava-lhe um bónus ou castigo arbitrário)
+    //sem PageRank (rank.intervalMs <= 0) todos usam o nº de incoming links
+    private double linkScore(int docId) {
+        if (pageRank == null) return indexedItems.incomingLinksCount(docId);
+        double pr = pageRank.score(docId);
+        return (pr >= 0) ? pr : 1.0;
+    }
+
     //gateway ->barrel: incoming links
     @Override
     public String[] getIncomingLinks(String url) throws RemoteException {
@@ -95,6 +292,24 @@ public class Barrel extends UnicastRemoteObject implements BarrelService {
         return indexedItems.totalPages();
     }
 
+    //barrel -> barrel: ver ReplicaSync
+    @Override
+    public long[] syncDigest(int buckets) throws RemoteException {
+        if (buckets <= 0) throw new RemoteException("invalid bucket count " + buckets);
+        return ReplicaSync.digest(indexedItems, buckets);
+    }
+
+    @Override
+    public Map<String, Long> syncVersions(int[] bucketIds, int buckets) throws RemoteException {
+        if (buckets <= 0) throw new RemoteException("invalid bucket count " + buckets);
+        return ReplicaSync.versions(indexedItems, bucketIds, buckets);
+    }
+
+    @Override
+    public PageDTO[] syncFetch(String[] urls) throws RemoteException {
+        return indexedItems.exportPages(List.of(urls)).toArray(PageDTO[]::new);
+    }
+
     public static void main(String[] args) {
         try {
             Properties cfg = new Properties();
@@ -126,22 +341,105 @@ public class Barrel extends UnicastRemoteObject implements BarrelService {
             Barrel barrel = new Barrel(exportPort);
             barrel.barrelName = name;
             barrel.dataFile = name + "_index.txt";
-            //load a data se houver
+            barrel.dataDir = Path.of(name + "_data");
+            barrel.log = new IndexLog(barrel.dataDir);
+
+            //stopwords/stemming: o índice e as queries têm de usar o mesmo
+            barrel.tokenizer = Tokenizer.fromConfig(cfg);
+            barrel.indexedItems.setTokenizer(barrel.tokenizer);
+
+            //modo sharded: este barrel só fica com os urls do seu shard (ver Shards)
+            int shardId = Integer.parseInt(cfg.getProperty("shard.id", "0"));
+            int shardCount = Integer.parseInt(cfg.getProperty("shard.count", "1"));
+            if (shardCount > 1) {
+                barrel.indexedItems.setOwnership(u -> Shards.of(u, shardCount) == shardId);
+                System.out.println("[Barrel] Shard " + shardId + " of " + shardCount);
+            }
+
+            //load a data se houver: o snapshot mais recente, senão o ficheiro do formato antigo
+            List<Long> snaps = snapshots(barrel.dataDir);
+            long fromSegment = 0;
             try {
-                barrel.indexedItems.loadFromDisk(barrel.dataFile);
+                if (!snaps.isEmpty()) {
+                    fromSegment = snaps.get(snaps.size() - 1);
+                    barrel.indexedItems.loadFromDisk(snapshotPath(barrel.dataDir, fromSegment).toString());
+                } else {
+                    barrel.indexedItems.loadFromDisk(barrel.dataFile);
+                }
                 System.out.println("[Barrel] Loaded " + barrel.indexedItems.totalPages());
             } catch (Exception e) {
                 System.out.println("Não consigo ler o ficheiro, ye");
             }
 
-            //hook para dar save ao index quando levar shutdown
+            //reaplicar o que ficou no log depois do último snapshot
+            int replayed = barrel.log.replay(fromSegment, p -> barrel.indexedItems.addPages(List.of(p)));
+            System.out.println("[Barrel] Replayed " + replayed + " pages from log (" + barrel.indexedItems.totalPages() + " pages)");
+            barrel.snapshotVersion = (replayed == 0 && !snaps.isEmpty()) ? barrel.indexedItems.version() : -1;
+
+            long syncMs = Long.parseLong(cfg.getProperty("wal.syncIntervalMs", "200"));
+            long snapshotMs = Long.parseLong(cfg.getProperty("snapshot.intervalMs", "60000"));
+            ScheduledExecutorService persistence = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "barrel-persistence");
+                t.setDaemon(true);
+                return t;
+            });
+            persistence.scheduleWithFixedDelay(barrel::syncLog, syncMs, syncMs, TimeUnit.MILLISECONDS);
+            persistence.scheduleWithFixedDelay(barrel::snapshot, snapshotMs, snapshotMs, TimeUnit.MILLISECONDS);
+
+            //compactação em background: as pesquisas já saltam o que está marcado, isto só liberta memória
+            long compactMs = Long.parseLong(cfg.getProperty("compact.intervalMs", "30000"));
+            if (compactMs > 0) {
+                ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "barrel-compact");
+                    t.setDaemon(true);
+                    return t;
+                });
+                compactor.scheduleWithFixedDelay(barrel::compact, compactMs, compactMs, TimeUnit.MILLISECONDS);
+            }
+
+            //PageRank em background: recalculado a partir do anterior sempre que o índice muda
+            long rankMs = Long.parseLong(cfg.getProperty("rank.intervalMs", "60000"));
+            if (rankMs > 0) {
+                barrel.pageRank = new PageRank(barrel.indexedItems,
+                        Integer.parseInt(cfg.getProperty("rank.threads", String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                        Double.parseDouble(cfg.getProperty("rank.damping", "0.85")),
+                        Double.parseDouble(cfg.getProperty("rank.tolerance", "1e-6")),
+                        Integer.parseInt(cfg.getProperty("rank.maxIterations", "100")));
+                ScheduledExecutorService ranker = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "barrel-rank");
+                    t.setDaemon(true);
+                    return t;
+                });
+                ranker.scheduleWithFixedDelay(barrel.pageRank::refresh, 0, rankMs, TimeUnit.MILLISECONDS);
+            }
+
+            //anti-entropy com os outros barrels (rmi://host:port/Nome separados por vírgulas)
+            List<String> peers = new ArrayList<>();
+            for (String peer : cfg.getProperty("sync.peers", "").split(",")) {
+                if (!peer.isBlank()) peers.add(peer.strip());
+            }
+            if (!peers.isEmpty()) {
+                long syncEveryMs = Long.parseLong(cfg.getProperty("sync.intervalMs", "30000"));
+                int buckets = Integer.parseInt(cfg.getProperty("sync.buckets", "256"));
+                ReplicaSync sync = new ReplicaSync(barrel.indexedItems, peers, buckets, barrel::applyPages);
+                ScheduledExecutorService syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "barrel-sync");
+                    t.setDaemon(true);
+                    return t;
+                });
+                syncer.scheduleWithFixedDelay(sync::run, syncEveryMs, syncEveryMs, TimeUnit.MILLISECONDS);
+                System.out.println("[Barrel] Syncing with " + peers + " every " + syncEveryMs + "ms");
+            }
+
+            //no shutdown basta fazer fsync do log, o arranque seguinte faz replay
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 try {
-                    System.out.println("[Barrel] Shutdown triggered, saving to '" + barrel.dataFile + "' ...");
-                    barrel.indexedItems.saveToDisk(barrel.dataFile);
-                    System.out.println("[Barrel] Saved index on shutdown to '" + barrel.dataFile + "' (" + barrel.indexedItems.totalPages() + " pages)");
+                    System.out.println("[Barrel] Shutdown triggered, syncing log ...");
+                    barrel.logLock.writeLock().lock();
+                    barrel.log.close();
+                    System.out.println("[Barrel] Log synced on shutdown (" + barrel.indexedItems.totalPages() + " pages)");
                 } catch (Exception e) {
-                    System.err.println("[Barrel] Error saving on shutdown: " + e.getMessage());
+                    System.err.println("[Barrel] Error syncing log on shutdown: " + e.getMessage());
                 }
             }));
 
@@ -149,7 +447,7 @@ public class Barrel extends UnicastRemoteObject implements BarrelService {
             Naming.rebind(url, barrel);
 
             System.out.println("Barrel bound as " + url + " (exportPort=" + exportPort + ", hostname=" + System.getProperty("java.rmi.server.hostname") + ")");
-            System.out.println("[Barrel] file: " + barrel.dataFile);
+            System.out.println("[Barrel] data: " + barrel.dataDir);
         } catch (Exception e) {
             System.err.println("Error getting file: "+ e.getMessage());
         }
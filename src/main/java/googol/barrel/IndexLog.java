@@ -0,0 +1,141 @@
+package googol.barrel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import googol.common.dto.PageDTO;
+
+//write-ahead log do barrel: cada sendPage é acrescentado ao segmento atual
+//o fsync é feito em lote por sync() (chamado periodicamente), por isso no máximo perde-se um intervalo
+//um snapshot faz rotate(), grava o índice e depois apaga os segmentos anteriores com deleteBefore()
+//formato de cada registo: [int tamanho][long crc32][payload]
+public class IndexLog {
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".log";
+
+    private final Path dir;
+    private long segment;
+    private FileOutputStream file;
+    private DataOutputStream out;
+    private boolean dirty;
+
+    public IndexLog(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        List<Long> existing = segments();
+        //nunca se escreve num segmento que já existe: pode ter a cauda cortada
+        segment = existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1;
+        open();
+    }
+
+    public synchronized void append(PageDTO page) throws IOException {
+        byte[] payload = PageDTO.encode(page);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.writeLong(crc.getValue());
+        out.write(payload);
+        dirty = true;
+    }
+
+    //um lote do sendPages, com o lock apanhado uma só vez
+    public synchronized void appendAll(List<PageDTO> pages) throws IOException {
+        for (PageDTO page : pages) append(page);
+    }
+
+    //flush + fsync de tudo o que foi acrescentado desde o último sync
+    public synchronized void sync() throws IOException {
+        if (!dirty) return;
+        out.flush();
+        file.getChannel().force(false);
+        dirty = false;
+    }
+
+    //fecha o segmento atual e começa um novo; devolve o número do novo
+    public synchronized long rotate() throws IOException {
+        sync();
+        out.close();
+        segment++;
+        open();
+        return segment;
+    }
+
+    public synchronized void deleteBefore(long seg) throws IOException {
+        for (long s : segments()) {
+            if (s < seg) Files.deleteIfExists(path(s));
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        sync();
+        out.close();
+    }
+
+    //reaplica os segmentos >= fromSegment por ordem; pára num segmento ao encontrar um registo incompleto/corrompido
+    public int replay(long fromSegment, Consumer<PageDTO> apply) throws IOException {
+        int count = 0;
+        for (long s : segments()) {
+            if (s < fromSegment) continue;
+            if (s >= segment) break;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path(s).toFile())))) {
+                while (true) {
+                    int len;
+                    try {
+                        len = in.readInt();
+                    } catch (EOFException eof) {
+                        break;
+                    }
+                    try {
+                        long expected = in.readLong();
+                        if (len < 0) throw new IOException("negative record length");
+                        byte[] payload = in.readNBytes(len);
+                        if (payload.length < len) throw new EOFException();
+                        CRC32 crc = new CRC32();
+                        crc.update(payload);
+                        if (crc.getValue() != expected) throw new IOException("bad checksum");
+                        apply.accept(PageDTO.decode(payload));
+                        count++;
+                    } catch (IOException e) {
+                        System.err.println("[IndexLog] Truncated record in " + path(s).getFileName() + ", skipping rest: " + e.getMessage());
+                        break;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private void open() throws IOException {
+        file = new FileOutputStream(path(segment).toFile(), true);
+        out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024));
+        dirty = false;
+    }
+
+    private Path path(long seg) {
+        return dir.resolve(PREFIX + String.format("%012d", seg) + SUFFIX);
+    }
+
+    private List<Long> segments() throws IOException {
+        List<Long> result = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString())
+                 .filter(n -> n.startsWith(PREFIX) && n.endsWith(SUFFIX))
+                 .forEach(n -> result.add(Long.parseLong(n.substring(PREFIX.length(), n.length() - SUFFIX.length()))));
+        }
+        result.sort(null);
+        return result;
+    }
+}
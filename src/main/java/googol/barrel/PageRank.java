@@ -0,0 +1,160 @@
+package googol.barrel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import googol.downloader.InvertedIndex;
+
+//PageRank do grafo de links do barrel, calculado em background e usado no ranking em vez da contagem de links
+//o grafo fica em CSR pelas ligações de entrada (int[] e não mapas), e cada iteração é um "pull":
+//  pr'[v] = (1-d)/N + d * (soma de pr[u]/out(u) para u -> v  +  massa dos nós sem saídas / N)
+//assim cada thread escreve só a sua fatia de v, sem locks nem atomics
+//entre refreshes o vetor anterior é o ponto de partida (warm start), por isso poucas páginas novas = poucas iterações
+class PageRank {
+    private final InvertedIndex index;
+    private final ExecutorService workers;
+    private final int threads;
+    private final double damping;
+    private final double tolerance;
+    private final int maxIterations;
+
+    private volatile double[] ranks;//pr * N, média 1; null até ao primeiro cálculo
+    private long computedAt = -1;//versão do índice do último cálculo
+
+    //grafo: as entradas de v são from[start[v] .. start[v+1])
+    record Graph(int n, int[] start, int[] from, int[] outDegree) {
+        int edges() {
+            return start[n];
+        }
+    }
+
+    PageRank(InvertedIndex index, int threads, double damping, double tolerance, int maxIterations) {
+        this.index = index;
+        this.threads = threads;
+        this.damping = damping;
+        this.tolerance = tolerance;
+        this.maxIterations = maxIterations;
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "barrel-rank-worker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    //corre no scheduler; só recalcula se o índice mudou
+    void refresh() {
+        long version = index.version();
+        if (version == computedAt) return;
+        try {
+            long t0 = System.nanoTime();
+            Graph g = graph(index);
+            long t1 = System.nanoTime();
+            int[] iterations = new int[1];
+            double[] next = compute(g, ranks, iterations);
+            ranks = next;
+            computedAt = version;
+            System.out.printf("[Barrel] PageRank: %d pages, %d links, graph %dms, %d iterations %dms%n",
+                    g.n(), g.edges(), (t1 - t0) / 1_000_000, iterations[0], (System.nanoTime() - t1) / 1_000_000);
+        } catch (Exception e) {
+            System.err.println("[Barrel] PageRank failed: " + e.getMessage());
+        }
+    }
+
+    //pr do doc relativo à média (1 = página média); -1 se ainda não há cálculo que o inclua
+    double score(int docId) {
+        double[] r = ranks;
+        return (r == null || docId >= r.length) ? -1 : r[docId];
+    }
+
+    //uma passagem pelas páginas: arestas num par de int[] e depois counting sort por destino
+    static Graph graph(InvertedIndex index) {
+        int n = index.docCount();
+        int[][] edges = { new int[1024], new int[1024] };//[origem][destino]
+        int[] count = new int[1];
+        int[] outDegree = new int[n];
+        index.forEachOutgoing((outgoing, u) -> {
+            for (int v : outgoing) {
+                if (v == u || v >= n || u >= n) continue;//auto-links não contam; ids novos ficam para a próxima
+                int k = count[0]++;
+                if (k == edges[0].length) {
+                    edges[0] = Arrays.copyOf(edges[0], k * 2);
+                    edges[1] = Arrays.copyOf(edges[1], k * 2);
+                }
+                edges[0][k] = u;
+                edges[1][k] = v;
+                outDegree[u]++;
+            }
+        });
+        int m = count[0];
+        int[] start = new int[n + 1];
+        for (int k = 0; k < m; k++) start[edges[1][k] + 1]++;
+        for (int v = 0; v < n; v++) start[v + 1] += start[v];
+        int[] fill = Arrays.copyOf(start, n);
+        int[] from = new int[m];
+        for (int k = 0; k < m; k++) from[fill[edges[1][k]]++] = edges[0][k];
+        return new Graph(n, start, from, outDegree);
+    }
+
+    //power iteration até a variação (L1, em pr normalizado) ficar abaixo da tolerância
+    double[] compute(Graph g, double[] warm, int[] iterations) throws InterruptedException, ExecutionException {
+        int n = g.n();
+        if (n == 0) return new double[0];
+        double[] pr = new double[n];
+        //warm start: os nós que já existiam mantêm o valor, os novos começam na média; depois normaliza
+        double sum = 0;
+        for (int v = 0; v < n; v++) {
+            pr[v] = (warm != null && v < warm.length) ? warm[v] / n : 1.0 / n;
+            sum += pr[v];
+        }
+        for (int v = 0; v < n; v++) pr[v] /= sum;
+
+        //contribuição de cada nó pelas suas saídas, calculada uma vez por iteração
+        double[] share = new double[n];
+        double[] next = new double[n];
+        int chunk = (n + threads - 1) / threads;
+        int it = 0;
+        while (it < maxIterations) {
+            it++;
+            double dangling = 0;
+            for (int u = 0; u < n; u++) {
+                int out = g.outDegree()[u];
+                if (out == 0) dangling += pr[u];
+                else share[u] = pr[u] / out;
+            }
+            double base = (1 - damping) / n + damping * dangling / n;
+            double[] cur = pr;
+            double[] dst = next;
+            List<Callable<Double>> tasks = new ArrayList<>(threads);
+            for (int lo = 0; lo < n; lo += chunk) {
+                int from = lo, to = Math.min(n, lo + chunk);
+                tasks.add(() -> {
+                    int[] start = g.start();
+                    int[] in = g.from();
+                    double delta = 0;
+                    for (int v = from; v < to; v++) {
+                        double s = 0;
+                        for (int k = start[v]; k < start[v + 1]; k++) s += share[in[k]];
+                        double val = base + damping * s;
+                        delta += Math.abs(val - cur[v]);
+                        dst[v] = val;
+                    }
+                    return delta;
+                });
+            }
+            double delta = 0;
+            for (Future<Double> f : workers.invokeAll(tasks)) delta += f.get();
+            next = pr;
+            pr = dst;
+            if (delta < tolerance) break;
+        }
+        iterations[0] = it;
+        for (int v = 0; v < n; v++) pr[v] *= n;
+        return pr;
+    }
+}
@@ -0,0 +1,113 @@
+package googol.barrel;
+
+import java.rmi.Naming;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import googol.common.BarrelService;
+import googol.common.Hashes;
+import googol.common.dto.PageDTO;
+import googol.downloader.InvertedIndex;
+
+//anti-entropy entre barrels: cada barrel puxa dos peers o que lhe falta (pull, por isso os dois lados acabam iguais)
+//1. compara um digest por bucket (hash do url % buckets) com o do peer
+//2. pede url -> versão de todos os buckets diferentes num só pedido (o peer percorre o índice uma vez)
+//   e fica com os urls que não tem ou tem numa versão mais antiga
+//3. vai buscar essas páginas em lotes pequenos e indexa-as como se viessem do downloader (índice + log)
+class ReplicaSync {
+    private static final int FETCH_BATCH = 64;
+
+    private final InvertedIndex index;
+    private final List<String> peers;
+    private final int buckets;
+    private final Predicate<List<PageDTO>> apply;
+    private final Map<String, BarrelService> stubs = new HashMap<>();
+
+    ReplicaSync(InvertedIndex index, List<String> peers, int buckets, Predicate<List<PageDTO>> apply) {
+        this.index = index;
+        this.peers = peers;
+        this.buckets = buckets;
+        this.apply = apply;
+    }
+
+    //corre no scheduler do barrel; um peer em baixo só é tentado outra vez na próxima ronda
+    void run() {
+        for (String peer : peers) {
+            try {
+                syncWith(peer);
+            } catch (Exception e) {
+                System.err.println("[Barrel] Sync with " + peer + " failed: " + e.getMessage());
+                stubs.remove(peer);
+            }
+        }
+    }
+
+    private void syncWith(String peer) throws Exception {
+        BarrelService remote = stubs.get(peer);
+        if (remote == null) {
+            remote = (BarrelService) Naming.lookup(peer);
+            stubs.put(peer, remote);
+        }
+        long[] theirs = remote.syncDigest(buckets);
+        long[] mine = digest(index, buckets);
+        if (theirs.length != buckets) throw new IllegalStateException("peer uses " + theirs.length + " buckets, expected " + buckets);
+
+        List<Integer> differing = new ArrayList<>();
+        for (int b = 0; b < buckets; b++) {
+            if (theirs[b] != mine[b]) differing.add(b);
+        }
+        if (differing.isEmpty()) return;
+        int[] wanted = differing.stream().mapToInt(Integer::intValue).toArray();
+        List<String> missing = new ArrayList<>();
+        for (Map.Entry<String, Long> e : remote.syncVersions(wanted, buckets).entrySet()) {
+            if (index.pageVersion(e.getKey()) < e.getValue()) missing.add(e.getKey());
+        }
+        int pulled = 0;
+        for (int i = 0; i < missing.size(); i += FETCH_BATCH) {
+            List<String> chunk = missing.subList(i, Math.min(missing.size(), i + FETCH_BATCH));
+            PageDTO[] pages = remote.syncFetch(chunk.toArray(String[]::new));
+            if (!apply.test(List.of(pages))) break;//log com problemas: tenta-se na próxima ronda
+            pulled += pages.length;
+        }
+        if (pulled > 0) {
+            System.out.println("[Barrel] Sync with " + peer + ": " + wanted.length + " buckets differ, pulled " + pulled + " pages");
+        }
+    }
+
+    //soma (comutativa) de um hash de (url, versão) por bucket: não depende da ordem nem de onde a página está guardada
+    static long[] digest(InvertedIndex index, int buckets) {
+        long[] d = new long[buckets];
+        index.forEachPageVersion((url, version) -> {
+            long h = Hashes.fnv1a(url);
+            d[bucket(h, buckets)] += mix(h ^ (version * 0x9E3779B97F4A7C15L));
+        });
+        return d;
+    }
+
+    //url -> versão das páginas em qualquer um dos buckets pedidos, numa só passagem pelo índice
+    static HashMap<String, Long> versions(InvertedIndex index, int[] wanted, int buckets) {
+        boolean[] in = new boolean[buckets];
+        for (int b : wanted) {
+            if (b >= 0 && b < buckets) in[b] = true;
+        }
+        HashMap<String, Long> result = new HashMap<>();
+        index.forEachPageVersion((url, version) -> {
+            if (in[bucket(Hashes.fnv1a(url), buckets)]) result.put(url, version);
+        });
+        return result;
+    }
+
+    private static int bucket(long h, int buckets) {
+        return (int) Long.remainderUnsigned(h, buckets);
+    }
+
+    //finalizador do splitmix64, para a soma não se anular com hashes parecidos
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -23,6 +23,7 @@ public class ClientCLI extends UnicastRemoteObject implements ClientCallback {
     private static String[][] top10Searches = new String[0][0];
     private static Map<String, Integer> barrelStatus = Map.of();
     private static Map<String, Double> responseTimes = Map.of();
+    private static Map<String, Long> cacheStats = Map.of();
     
     public ClientCLI() throws RemoteException {
         super(getClientCallbackPort());
@@ -80,6 +81,18 @@ public class ClientCLI extends UnicastRemoteObject implements ClientCallback {
             }
         }
         
+        // Gateway query cache
+        System.out.println("\n-----search cache-----");
+        if (cacheStats.isEmpty()) {
+            System.out.println("  (no data yet)");
+        } else {
+            long hits = cacheStats.getOrDefault("hits", 0L);
+            long misses = cacheStats.getOrDefault("misses", 0L);
+            double ratio = (hits + misses == 0) ? 0.0 : 100.0 * hits / (hits + misses);
+            System.out.printf("  hits: %d, misses: %d (%.1f%% hit rate), entries: %d%n",
+                    hits, misses, ratio, cacheStats.getOrDefault("entries", 0L));
+        }
+        
         System.out.println("\n-------------------------\n");
     }
     
@@ -95,6 +108,12 @@ public class ClientCLI extends UnicastRemoteObject implements ClientCallback {
         // Store silently, will be printed when top10 updates
     }
 
+    @Override
+    public void updateCacheStats(Map<String, Long> stats) throws RemoteException {
+        cacheStats = stats;
+        // Store silently, will be printed when top10 updates
+    }
+
     private static void reconnectGateway() throws Exception {
         int retries = connectionRetries;
         Exception lastException = null;
@@ -146,10 +165,10 @@ public class ClientCLI extends UnicastRemoteObject implements ClientCallback {
                 System.err.println("[Client] Failed to register for stats: " + e.getMessage());
             }
             
-            System.out.println("Connected. Commands: search <terms> | incoming <url> | putNew <url> | exit");
+            System.out.println("Connected. Commands: search <terms or \"a phrase\"> | incoming <url> | putNew <url> | exit");
 
             while (true) {
-                System.out.print("Commands: search <terms> | incoming <url> | putNew <url> | exit");
+                System.out.print("Commands: search <terms or \"a phrase\"> | incoming <url> | putNew <url> | exit");
                 System.out.print("\n> ");
                 String line = in.nextLine().trim();
                 
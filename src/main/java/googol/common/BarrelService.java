@@ -2,6 +2,7 @@ package googol.common;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.Map;
 
 import googol.common.dto.PageDTO;
 import googol.common.dto.SearchResult;
@@ -9,7 +10,14 @@ import googol.common.dto.SearchResult;
 
 public interface BarrelService extends Remote {
     void sendPage(PageDTO page) throws RemoteException;//downloader -> barrel
+    boolean[] sendPages(PageDTO[] pages) throws RemoteException;//lote; acks[i] = pages[i] ficou indexada e no log
     SearchResult[] searchWord(String[] terms, int page) throws RemoteException;
+    SearchResult[] searchTop(String[] terms, int k) throws RemoteException;//modo sharded: os k melhores deste shard
     String[] getIncomingLinks(String url) throws RemoteException;
     int getIndexSize() throws RemoteException;
+
+    //barrel -> barrel (anti-entropy)
+    long[] syncDigest(int buckets) throws RemoteException;
+    Map<String, Long> syncVersions(int[] bucketIds, int buckets) throws RemoteException;//todos os buckets pedidos de uma vez
+    PageDTO[] syncFetch(String[] urls) throws RemoteException;
 }
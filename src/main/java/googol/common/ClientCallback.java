@@ -8,4 +8,5 @@ public interface ClientCallback extends Remote {
     void updateTop10Searches(String[][] top10) throws RemoteException;
     void updateBarrelStatus(Map<String, Integer> barrelStats) throws RemoteException;
     void updateResponseTimes(Map<String, Double> responseTimes) throws RemoteException;
+    void updateCacheStats(Map<String, Long> cacheStats) throws RemoteException;
 }
@@ -10,6 +10,11 @@ public interface GatewayService extends Remote {
     String[] getIncomingLinks(String url) throws RemoteException;
     void putNewURL(String url) throws RemoteException;
     String takeNext() throws RemoteException;
+    // Batch variants for downloaders: one round trip for many URLs
+    String[] takeNextBatch(int max) throws RemoteException;
+    void putNewURLs(String[] urls) throws RemoteException;
+    // Downloaders report what they fetched (url + content hash) so the gateway can schedule recrawls
+    void reportCrawled(String[] urls, long[] contentHashes) throws RemoteException;
     
     // Client callback registration for real-time stats updates
     void registerClient(ClientCallback client) throws RemoteException;
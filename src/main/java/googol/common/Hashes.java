@@ -0,0 +1,31 @@
+package googol.common;
+
+//FNV-1a de 64 bits, o hash de strings usado em todo o lado (shards, seen urls, hash do conteúdo, sync entre réplicas)
+//os valores ficam guardados em disco e têm de bater entre processos: não mudar
+public final class Hashes {
+    public static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private Hashes() {}
+
+    public static long fnv1a(String s) {
+        return fnv1a(FNV_OFFSET, s);
+    }
+
+    //continua a partir de h, para juntar várias strings num só hash
+    public static long fnv1a(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= FNV_PRIME;
+        }
+        return h;
+    }
+
+    //mistura final (do murmur3): o FNV sozinho deixa os bits de cima pouco espalhados
+    public static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,51 @@
+package googol.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+//query já partida: as palavras (para o AND) e as frases entre aspas (palavras seguidas, por esta ordem)
+//o cliente parte a linha por espaços, por isso "foo bar" chega como ["\"foo", "bar\""] e aqui junta-se tudo outra vez
+//as palavras passam pelo mesmo Tokenizer do InvertedIndex.addPages, senão não batiam com os termos nem com as posições
+public final class Query {
+    public final String[] words;//distintas, em minúsculas, incluindo as das frases
+    public final List<String[]> phrases;//só frases com 2+ palavras
+
+    private Query(String[] words, List<String[]> phrases) {
+        this.words = words;
+        this.phrases = phrases;
+    }
+
+    public static Query parse(String[] terms) {
+        return parse(terms, Tokenizer.DEFAULT);
+    }
+
+    public static Query parse(String[] terms, Tokenizer tokenizer) {
+        Set<String> words = new LinkedHashSet<>();
+        List<String[]> phrases = new ArrayList<>();
+        String line = String.join(" ", terms);
+        boolean quoted = false;
+        //as partes entre aspas são as ímpares; umas aspas sem par vão até ao fim
+        for (String part : line.split("\"", -1)) {
+            String[] w = tokenizer.terms(part);
+            words.addAll(Arrays.asList(w));
+            if (quoted && w.length > 1) phrases.add(w);
+            quoted = !quoted;
+        }
+        return new Query(words.toArray(String[]::new), phrases);
+    }
+
+    public boolean isEmpty() {
+        return words.length == 0;
+    }
+
+    //chave para caches: a ordem das palavras não conta, a das palavras dentro de uma frase conta
+    public String key() {
+        TreeSet<String> parts = new TreeSet<>(Arrays.asList(words));
+        for (String[] p : phrases) parts.add("\"" + String.join(" ", p) + "\"");
+        return String.join(" ", parts);
+    }
+}
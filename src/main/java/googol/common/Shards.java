@@ -0,0 +1,14 @@
+package googol.common;
+
+//em modo sharded cada url pertence a um só shard: o barrel guarda a página (e as ligações que apontam para ela)
+//só se for o dono, e o gateway manda os getIncomingLinks para o dono
+//tem de ser igual no gateway e em todos os barrels, por isso está aqui
+public final class Shards {
+    private Shards() {}
+
+    public static int of(String url, int count) {
+        if (count <= 1) return 0;
+        //FNV-1a 64 (o String.hashCode espalha mal urls que só diferem no fim)
+        return (int) Long.remainderUnsigned(Hashes.fnv1a(url), count);
+    }
+}
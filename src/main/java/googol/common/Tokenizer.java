@@ -0,0 +1,143 @@
+package googol.common;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+//análise de texto partilhada pelo índice (InvertedIndex.addPages) e pelas queries (Query.parse), para baterem sempre certo
+//percorre o texto char a char: sem regex, sem copiar o texto todo para minúsculas, só uma String por palavra
+//palavra = letras/dígitos unicode seguidos (o \W+ antigo partia "cão" em "c" e "o"), em minúsculas e sem acentos
+//("Cão" -> "cao"), sem stopwords e, opcionalmente, com um stemming leve de plurais (pt/en)
+public final class Tokenizer {
+    public static final Tokenizer DEFAULT = new Tokenizer(true, false);
+
+    private static final int MAX_TERM = 64;//mais do que isto é lixo (base64, hashes, ...)
+    //já sem acentos, porque se comparam depois do fold
+    private static final Set<String> STOPWORDS = Set.copyOf(Arrays.asList((
+            "a o e as os de do da dos das em no na nos nas um uma uns umas ao aos que se por para com como mas ou "
+          + "pelo pela pelos pelas num numa ja tambem so ate isso isto esse essa esses essas este esta estes estas "
+          + "ele ela eles elas eu tu me te lhe lhes seu sua seus suas meu minha teu tua vos "
+          + "the of and to in is it that for on with was at by an be this are or from but its into "
+          + "than then there these those they them their which").split(" ")));
+
+    //fold dos caracteres latinos (até U+024F): minúscula sem diacríticos, calculado uma vez
+    private static final String[] FOLD = new String[0x250];
+    static {
+        for (int c = 0x80; c < FOLD.length; c++) {
+            String base = Normalizer.normalize(String.valueOf((char) c).toLowerCase(), Normalizer.Form.NFD)
+                                    .replaceAll("\\p{M}", "");
+            FOLD[c] = switch (c) {
+                case 'ß' -> "ss";
+                case 'æ', 'Æ' -> "ae";
+                case 'œ', 'Œ' -> "oe";
+                case 'ø', 'Ø' -> "o";
+                case 'đ', 'Đ' -> "d";
+                case 'ł', 'Ł' -> "l";
+                case 'þ', 'Þ' -> "th";
+                default -> base;
+            };
+        }
+    }
+
+    //recebe cada termo com o início e o fim (exclusivo) no texto original
+    @FunctionalInterface
+    public interface Sink {
+        void term(String term, int start, int end);
+    }
+
+    private final boolean stopwords;
+    private final boolean stem;
+
+    public Tokenizer(boolean stopwords, boolean stem) {
+        this.stopwords = stopwords;
+        this.stem = stem;
+    }
+
+    //index.stopwords / index.stem: têm de ser iguais enquanto o índice existir, senão as queries deixam de bater
+    public static Tokenizer fromConfig(Properties cfg) {
+        return new Tokenizer(Boolean.parseBoolean(cfg.getProperty("index.stopwords", "true")),
+                             Boolean.parseBoolean(cfg.getProperty("index.stem", "false")));
+    }
+
+    public void tokenize(CharSequence text, Sink sink) {
+        char[] buf = new char[MAX_TERM + 2];
+        int len = 0;
+        int start = -1;
+        int n = text.length();
+        int i = 0;
+        while (i <= n) {
+            int cp = (i < n) ? Character.codePointAt(text, i) : ' ';
+            int width = (i < n) ? Character.charCount(cp) : 1;
+            if (cp < 0x80) {
+                //ascii: o caso normal, sem tabelas
+                char c = (char) cp;
+                if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                    if (start < 0) start = i;
+                    if (len <= MAX_TERM) buf[len] = c;
+                    len++;
+                } else if (c >= 'A' && c <= 'Z') {
+                    if (start < 0) start = i;
+                    if (len <= MAX_TERM) buf[len] = (char) (c + 32);
+                    len++;
+                } else if (start >= 0) {
+                    emit(buf, len, start, i, sink);
+                    start = -1;
+                    len = 0;
+                }
+            } else if (Character.isLetterOrDigit(cp)) {
+                if (start < 0) start = i;
+                String f = (cp < FOLD.length) ? FOLD[cp] : null;
+                if (f != null) {
+                    for (int k = 0; k < f.length(); k++, len++) if (len <= MAX_TERM) buf[len] = f.charAt(k);
+                } else {
+                    int lower = Character.toLowerCase(cp);
+                    if (len + 1 <= MAX_TERM) len += Character.toChars(lower, buf, len);
+                    else len += Character.charCount(lower);
+                }
+            } else if (start >= 0 && isMark(cp)) {
+                //acento separado (texto em NFD): faz parte da palavra mas não entra no termo
+            } else if (start >= 0) {
+                emit(buf, len, start, i, sink);
+                start = -1;
+                len = 0;
+            }
+            i += width;
+        }
+    }
+
+    //para as queries e para quem só quer a lista
+    public String[] terms(CharSequence text) {
+        List<String> out = new ArrayList<>();
+        tokenize(text, (t, s, e) -> out.add(t));
+        return out.toArray(String[]::new);
+    }
+
+    private void emit(char[] buf, int len, int start, int end, Sink sink) {
+        if (len == 0 || len > MAX_TERM) return;
+        String term = new String(buf, 0, len);
+        if (stopwords && STOPWORDS.contains(term)) return;
+        sink.term(stem ? stem(term) : term, start, end);
+    }
+
+    private static boolean isMark(int cp) {
+        int t = Character.getType(cp);
+        return t == Character.NON_SPACING_MARK || t == Character.ENCLOSING_MARK || t == Character.COMBINING_SPACING_MARK;
+    }
+
+    //plurais (pt à RSLP, mais o -s do inglês); palavras curtas ficam como estão
+    static String stem(String t) {
+        int n = t.length();
+        if (n < 4 || t.charAt(n - 1) != 's') return t;
+        if (t.endsWith("oes") || t.endsWith("aes")) return t.substring(0, n - 3) + "ao";//lições, cães
+        if (t.endsWith("ns")) return t.substring(0, n - 2) + "m";//homens
+        if (t.endsWith("ais")) return t.substring(0, n - 2) + "l";//animais
+        if (t.endsWith("eis")) return t.substring(0, n - 3) + "el";//papéis
+        if (t.endsWith("ois")) return t.substring(0, n - 3) + "ol";//lençóis
+        if (t.endsWith("res") || t.endsWith("zes") || t.endsWith("les")) return t.substring(0, n - 2);//flores, luzes
+        if (t.endsWith("ss") || t.endsWith("us") || t.endsWith("is")) return t;//class, bus, this
+        return t.substring(0, n - 1);
+    }
+}
@@ -0,0 +1,44 @@
+package googol.common;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+
+//forma canónica de um url, para "http://Site.pt:80/a#x" e "http://site.pt/a" contarem como o mesmo
+//tira o fragmento, põe scheme/host em minúsculas, tira a porta por defeito e usa "/" para o path vazio
+//o gateway usa-o nos urls da fila e o downloader nos links de saída, para o grafo de links ter as mesmas chaves que as páginas
+public final class UrlCanonicalizer {
+    private UrlCanonicalizer() {}
+
+    //null se não for um url http(s) válido
+    public static String canonicalize(String url) {
+        if (url == null) return null;
+        String u = url.trim();
+        if (u.isEmpty()) return null;
+        try {
+            URI uri = new URI(u);
+            String scheme = uri.getScheme();
+            String host = uri.getHost();
+            if (scheme == null || host == null) return null;
+            scheme = scheme.toLowerCase(Locale.ROOT);
+            if (!scheme.equals("http") && !scheme.equals("https")) return null;
+
+            int port = uri.getPort();
+            if ((scheme.equals("http") && port == 80) || (scheme.equals("https") && port == 443)) port = -1;
+
+            String path = uri.getRawPath();
+            if (path == null || path.isEmpty()) path = "/";
+
+            StringBuilder sb = new StringBuilder(u.length());
+            sb.append(scheme).append("://");
+            if (uri.getRawUserInfo() != null) sb.append(uri.getRawUserInfo()).append('@');
+            sb.append(host.toLowerCase(Locale.ROOT));
+            if (port != -1) sb.append(':').append(port);
+            sb.append(path);
+            if (uri.getRawQuery() != null) sb.append('?').append(uri.getRawQuery());
+            return sb.toString();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+}
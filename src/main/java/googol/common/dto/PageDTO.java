@@ -1,6 +1,13 @@
 package googol.common.dto;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 //o q o downloader vai mandar ao barrel
@@ -9,6 +16,10 @@ public class PageDTO implements Serializable {
     public String title;
     public String text;
     public Set<String> outgoing;
+    //quando foi feito o crawl (ms); entre réplicas ganha a versão maior
+    public long version;
+    //só na sincronização entre barrels: os termos já indexados (o texto que vai é só o resumo)
+    public String[] terms;
 
     public PageDTO() {}
     public PageDTO(String url, String title, String text, Set<String> outgoing) {
@@ -17,4 +28,60 @@ public class PageDTO implements Serializable {
         this.text = text;
         this.outgoing = outgoing;
     }
+
+    //formato binário usado no WAL do barrel e no spool do downloader
+    public static byte[] encode(PageDTO page) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream d = new DataOutputStream(bytes);
+        writeString(d, page.url);
+        writeString(d, page.title);
+        writeString(d, page.text);
+        Set<String> links = (page.outgoing == null) ? Set.of() : page.outgoing;
+        d.writeInt(links.size());
+        for (String l : links) writeString(d, l);
+        //campos acrescentados depois: os registos antigos acabam aqui
+        d.writeLong(page.version);
+        d.writeInt(page.terms == null ? -1 : page.terms.length);
+        if (page.terms != null) for (String t : page.terms) writeString(d, t);
+        d.flush();
+        return bytes.toByteArray();
+    }
+
+    public static PageDTO decode(byte[] payload) throws IOException {
+        DataInputStream d = new DataInputStream(new ByteArrayInputStream(payload));
+        String url = readString(d);
+        String title = readString(d);
+        String text = readString(d);
+        int n = d.readInt();
+        Set<String> links = new LinkedHashSet<>();
+        for (int i = 0; i < n; i++) links.add(readString(d));
+        PageDTO page = new PageDTO(url, title, text, links);
+        if (d.available() > 0) {
+            page.version = d.readLong();
+            int t = d.readInt();
+            if (t >= 0) {
+                page.terms = new String[t];
+                for (int i = 0; i < t; i++) page.terms[i] = readString(d);
+            }
+        }
+        return page;
+    }
+
+    //writeUTF só aguenta 64KB, o texto de uma página pode ser maior
+    //(públicos para os outros ficheiros binários que guardam urls/texto usarem o mesmo formato)
+    public static void writeString(DataOutputStream d, String s) throws IOException {
+        if (s == null) {
+            d.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        d.writeInt(b.length);
+        d.write(b);
+    }
+
+    public static String readString(DataInputStream d) throws IOException {
+        int len = d.readInt();
+        if (len < 0) return null;
+        return new String(d.readNBytes(len), StandardCharsets.UTF_8);
+    }
 }
@@ -10,6 +10,7 @@ public class SearchResult implements Serializable {
     public int incomingLinksCount;
 
     public int totalResults;//para o cli client
+    public double score;//para o gateway juntar os resultados de vários shards
 
     public SearchResult() {}
     public SearchResult(String url, String title, String text, int incomingLinksCount) {
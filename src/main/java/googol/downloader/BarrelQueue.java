@@ -0,0 +1,167 @@
+package googol.downloader;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.rmi.Naming;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import googol.common.BarrelService;
+import googol.common.dto.PageDTO;
+
+//fila de saída para um barrel: os workers só fazem offer() e voltam logo ao crawl
+//cada página vai primeiro para o spool em disco (fsync em grupo pelo sync(), como o log do barrel) e só sai de lá
+//com o ack do barrel; uma thread por barrel lê o spool por ordem e manda em lotes (sendPages), com backoff se o barrel está em baixo
+//um kill ou crash perde no máximo o que entrou desde o último sync (delivery.syncIntervalMs)
+class BarrelQueue {
+    private final String name;
+    private final String lookupUrl;
+    private final DeliverySpool spool;
+    private final int batchSize;
+    private final long retryDelay;
+    private final long maxBackoffMs;
+    private final AtomicLong rpcCalls;
+    private final AtomicLong delivered = new AtomicLong();
+    private volatile BarrelService stub;
+    private volatile boolean running = true;
+    private Thread sender;
+
+    BarrelQueue(String name, String host, int port, Path spoolDir, int batchSize,
+                long retryDelay, long maxBackoffMs, AtomicLong rpcCalls) throws IOException {
+        this.name = name;
+        this.lookupUrl = "rmi://" + host + ":" + port + "/" + name;
+        this.spool = new DeliverySpool(spoolDir.resolve(name));
+        this.batchSize = batchSize;
+        this.retryDelay = retryDelay;
+        this.maxBackoffMs = maxBackoffMs;
+        this.rpcCalls = rpcCalls;
+        if (spool.size() > 0) System.out.println("[Downloader] " + spool.size() + " pages spooled for " + name);
+    }
+
+    void start() {
+        sender = Thread.ofPlatform().daemon().name("deliver-" + name).start(this::deliverLoop);
+    }
+
+    //só escreve no buffer do spool; a thread de entrega é acordada
+    //encoded = PageDTO.encode(page), feito uma vez para todas as réplicas
+    void offer(PageDTO page, byte[] encoded) {
+        try {
+            spool.append(page, encoded);
+        } catch (IOException e) {
+            System.err.println("[Downloader] Failed to spool page for " + name + ", dropping " + page.url + ": " + e.getMessage());
+            return;
+        }
+        Thread s = sender;
+        if (s != null) LockSupport.unpark(s);
+    }
+
+    //fsync do que entrou desde o último; chamado pelo timer do downloader
+    void sync() {
+        try {
+            spool.sync();
+        } catch (IOException e) {
+            System.err.println("[Downloader] Spool sync failed for " + name + ": " + e.getMessage());
+        }
+    }
+
+    String name() {
+        return name;
+    }
+
+    long spooled() {
+        return spool.size();
+    }
+
+    long delivered() {
+        return delivered.get();
+    }
+
+    private void deliverLoop() {
+        long backoff = 0;
+        while (running) {
+            try {
+                if (backoff > 0) {
+                    Thread.sleep(backoff);
+                }
+                List<PageDTO> batch = spool.peek(batchSize);
+                if (batch.isEmpty()) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(500));//acordado pelo offer()
+                    continue;
+                }
+
+                List<PageDTO> failed = send(batch);
+                //só algumas falharam: essas voltam para o fim do spool (se falharam todas fica tudo onde está)
+                if (failed.size() < batch.size()) {
+                    spool.ack();
+                    for (PageDTO p : failed) spool.append(p);
+                    if (!failed.isEmpty()) spool.sync();
+                }
+
+                if (failed.isEmpty()) {
+                    backoff = 0;
+                } else {
+                    backoff = (backoff == 0) ? retryDelay : Math.min(maxBackoffMs, backoff * 2);
+                    System.out.println("[Downloader] " + name + " unavailable, retrying in " + backoff + "ms (" + spool.size() + " pages spooled)");
+                }
+            } catch (InterruptedException ie) {
+                break;
+            } catch (IOException e) {
+                System.err.println("[Downloader] Spool error for " + name + ": " + e.getMessage());
+                backoff = Math.max(backoff, retryDelay);
+            }
+        }
+    }
+
+    //um sendPages por lote; devolve as páginas sem ack (o lote todo se a chamada falhou)
+    private List<PageDTO> send(List<PageDTO> batch) {
+        BarrelService b = stub;
+        if (b == null && (b = connect()) == null) return batch;
+        boolean[] acks;
+        try {
+            rpcCalls.incrementAndGet();
+            acks = b.sendPages(batch.toArray(PageDTO[]::new));
+        } catch (Exception e) {
+            System.err.println("[Downloader] Failed to send " + batch.size() + " pages to " + name + ": " + e.getMessage());
+            stub = null;//relookup na próxima tentativa
+            return batch;
+        }
+        List<PageDTO> failed = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (i >= acks.length || !acks[i]) failed.add(batch.get(i));
+        }
+        delivered.addAndGet(batch.size() - failed.size());
+        return failed;
+    }
+
+    //uma tentativa só: as repetições ficam a cargo do backoff
+    private BarrelService connect() {
+        try {
+            stub = (BarrelService) Naming.lookup(lookupUrl);
+            System.out.println("[Downloader] Connected to " + name + " at " + lookupUrl);
+            return stub;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    //shutdown: pára a thread e faz fsync do spool
+    void close() {
+        running = false;
+        if (sender != null) {
+            sender.interrupt();
+            try {
+                sender.join(2000);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            spool.close();
+        } catch (IOException e) {
+            System.err.println("[Downloader] Failed to save queue for " + name + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package googol.downloader;
+
+//BM25: para cada palavra da query, idf x tf saturado e normalizado pelo tamanho do doc
+//  idf = ln(1 + (N - df + 0.5) / (df + 0.5))
+//  tf' = tf * (k1 + 1) / (tf + k1 * (1 - b + b * dl / avgdl))
+//tf' nunca passa de k1 + 1, por isso idf * (k1 + 1) é o máximo que uma palavra pode dar (ver InvertedIndex.search)
+final class Bm25 {
+    static final double K1 = 1.2;
+    static final double B = 0.75;
+
+    private Bm25() {}
+
+    static double idf(int pages, int df) {
+        return Math.log(1 + (pages - df + 0.5) / (df + 0.5));
+    }
+
+    //tf 0 = indexado sem posições (só se sabe que aparece); length 0 = tamanho desconhecido
+    static double tf(int tf, int length, double average) {
+        if (tf == 0) tf = 1;
+        double norm = (length == 0 || average == 0) ? 1 : 1 - B + B * length / average;
+        return tf * (K1 + 1) / (tf + K1 * norm);
+    }
+}
@@ -0,0 +1,271 @@
+package googol.downloader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import googol.common.dto.PageDTO;
+
+//páginas que ainda não chegaram a um barrel, em disco (uma diretoria por barrel)
+//segmentos append-only spool-<n>.bin com registos [int tamanho][long crc32][payload], como no IndexLog
+//peek() lê sem consumir; só ack() avança o cursor, depois de o barrel ter confirmado a entrega
+//as últimas páginas escritas ficam também em memória (tail) e o peek() serve-as daí sem reler o disco,
+//enquanto o tail tiver todas as pendentes; se encher, passa a ler do disco até o spool esvaziar
+//um registo corrompido faz saltar o resto do segmento: essas páginas perdem-se e saem logo do pending
+class DeliverySpool {
+    private static final int PAGES_PER_SEGMENT = 1000;
+    private static final int TAIL_SIZE = 1024;
+
+    private record Cached(PageDTO page, long seg, long end) {}
+
+    private final Path dir;
+    private long writeSeg;
+    private FileOutputStream file;
+    private DataOutputStream out;
+    private int writeCount;
+    private long writeOffset;
+    private final ArrayDeque<Cached> tail = new ArrayDeque<>();
+    private long readSeg;
+    private long readOffset;
+    private long pending;
+    private final TreeMap<Long, Integer> left = new TreeMap<>();//registos por entregar em cada segmento (somam pending)
+    private boolean unsynced;//há appends desde o último sync()
+    private boolean cursorMoved;//o cursor só vai para disco no sync(): depois de um crash podem repetir-se
+                                //algumas páginas já entregues, o que o barrel aguenta (reindexar a mesma versão)
+    //posição a seguir ao último registo devolvido pelo peek()
+    private long peekSeg;
+    private long peekOffset;
+    private int peeked;
+    private int peekedInSeg;//dos peeked, os que são do peekSeg
+    private long lastRecordSize;//bytes do último registo lido por readRecord()
+
+    DeliverySpool(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        List<Long> segs = segments();
+        readCursor();
+        if (!segs.isEmpty() && readSeg < segs.get(0)) {
+            readSeg = segs.get(0);
+            readOffset = 0;
+        }
+        for (long s : segs) {
+            if (s < readSeg) continue;
+            long n = countRecords(s, s == readSeg ? readOffset : 0);
+            left.put(s, (int) n);
+            pending += n;
+        }
+        //nunca se escreve num segmento que já existe: pode ter a cauda cortada
+        writeSeg = segs.isEmpty() ? Math.max(1, readSeg) : segs.get(segs.size() - 1) + 1;
+        if (segs.isEmpty()) {
+            readSeg = writeSeg;
+            readOffset = 0;
+        }
+        open();
+    }
+
+    void append(PageDTO page) throws IOException {
+        append(page, PageDTO.encode(page));
+    }
+
+    //payload = PageDTO.encode(page), para o mesmo encode servir os spools de todos os barrels
+    synchronized void append(PageDTO page, byte[] payload) throws IOException {
+        if (writeCount >= PAGES_PER_SEGMENT) {
+            sync();//o segmento cheio fica em disco antes de se passar ao próximo
+            out.close();
+            writeSeg++;
+            open();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.writeLong(crc.getValue());
+        out.write(payload);
+        writeCount++;
+        writeOffset += 12 + payload.length;
+        if (tail.size() == pending && tail.size() < TAIL_SIZE) tail.add(new Cached(page, writeSeg, writeOffset));
+        else tail.clear();
+        left.merge(writeSeg, 1, Integer::sum);
+        pending++;
+        unsynced = true;
+    }
+
+    synchronized void sync() throws IOException {
+        if (unsynced) {
+            out.flush();
+            file.getChannel().force(false);
+            unsynced = false;
+        }
+        if (cursorMoved) {
+            writeCursor();
+            cursorMoved = false;
+        }
+    }
+
+    synchronized long size() {
+        return pending;
+    }
+
+    //até max páginas a partir do cursor, sem o mexer
+    synchronized List<PageDTO> peek(int max) throws IOException {
+        List<PageDTO> result = new ArrayList<>();
+        peekSeg = readSeg;
+        peekOffset = readOffset;
+        peeked = 0;
+        peekedInSeg = 0;
+        if (pending == 0) return result;
+        if (!tail.isEmpty()) {
+            for (Cached c : tail) {
+                if (result.size() >= max) break;
+                result.add(c.page());
+                if (c.seg() != peekSeg) peekedInSeg = 0;
+                peekSeg = c.seg();
+                peekOffset = c.end();
+                peekedInSeg++;
+            }
+            peeked = result.size();
+            return result;
+        }
+        out.flush();
+        while (result.size() < max && peekSeg <= writeSeg) {
+            int fromSeg = 0;
+            Path p = path(peekSeg);
+            if (Files.exists(p)) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(p.toFile())))) {
+                    in.skipNBytes(peekOffset);
+                    while (result.size() < max) {
+                        PageDTO page = readRecord(in);
+                        if (page == null) break;
+                        result.add(page);
+                        peekOffset += lastRecordSize;
+                        fromSeg++;
+                    }
+                }
+                if (result.size() >= max || peekSeg == writeSeg) {
+                    peekedInSeg = fromSeg;
+                    break;
+                }
+            }
+            skipped(peekSeg, fromSeg);
+            peekSeg++;
+            peekOffset = 0;
+        }
+        peeked = result.size();
+        return result;
+    }
+
+    //o peek() passou o segmento seg depois de ler read registos dele: os que faltam estavam corrompidos
+    private void skipped(long seg, int read) {
+        int lost = left.getOrDefault(seg, 0) - read;
+        if (lost <= 0) return;
+        left.put(seg, read);
+        pending -= lost;
+        System.err.println("[DeliverySpool] Skipped " + lost + " unreadable pages in " + dir.getFileName() + "/" + path(seg).getFileName());
+    }
+
+    //as páginas do último peek() foram entregues
+    synchronized void ack() throws IOException {
+        if (peeked == 0 && peekSeg == readSeg) return;
+        for (long s = readSeg; s < peekSeg; s++) {
+            Files.deleteIfExists(path(s));
+            Integer n = left.remove(s);
+            if (n != null) pending -= n;
+        }
+        left.computeIfPresent(peekSeg, (s, n) -> n - peekedInSeg);
+        pending -= peekedInSeg;
+        readSeg = peekSeg;
+        readOffset = peekOffset;
+        for (int i = 0; i < peeked && !tail.isEmpty(); i++) tail.poll();
+        pending = Math.max(0, pending);
+        peeked = 0;
+        peekedInSeg = 0;
+        cursorMoved = true;
+    }
+
+    synchronized void close() throws IOException {
+        sync();
+        out.close();
+    }
+
+    //null no fim do segmento ou num registo cortado/corrompido (o resto do segmento é ignorado)
+    private PageDTO readRecord(DataInputStream in) {
+        try {
+            int len = in.readInt();
+            long expected = in.readLong();
+            if (len < 0) return null;
+            byte[] payload = in.readNBytes(len);
+            if (payload.length < len) return null;
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if (crc.getValue() != expected) return null;
+            lastRecordSize = 12 + len;
+            return PageDTO.decode(payload);
+        } catch (EOFException eof) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("[DeliverySpool] Bad record in " + dir.getFileName() + ", skipping rest of segment: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private long countRecords(long seg, long from) throws IOException {
+        long n = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path(seg).toFile())))) {
+            in.skipNBytes(from);
+            while (readRecord(in) != null) n++;
+        }
+        return n;
+    }
+
+    private void open() throws IOException {
+        file = new FileOutputStream(path(writeSeg).toFile(), true);
+        out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024));
+        writeCount = 0;
+        writeOffset = 0;
+    }
+
+    private Path path(long seg) {
+        return dir.resolve(String.format("spool-%012d.bin", seg));
+    }
+
+    private List<Long> segments() throws IOException {
+        List<Long> result = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString())
+                 .filter(n -> n.startsWith("spool-") && n.endsWith(".bin"))
+                 .forEach(n -> result.add(Long.parseLong(n.substring(6, n.length() - 4))));
+        }
+        result.sort(null);
+        return result;
+    }
+
+    private void readCursor() {
+        try {
+            String[] parts = Files.readString(dir.resolve("cursor")).trim().split(" ");
+            readSeg = Long.parseLong(parts[0]);
+            readOffset = Long.parseLong(parts[1]);
+        } catch (Exception e) {
+            readSeg = 0;
+            readOffset = 0;
+        }
+    }
+
+    private void writeCursor() throws IOException {
+        Path tmp = dir.resolve("cursor.tmp");
+        Files.writeString(tmp, readSeg + " " + readOffset);
+        Files.move(tmp, dir.resolve("cursor"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,51 @@
+package googol.downloader;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+//url <-> docId: cada url guarda-se uma vez e o resto do índice só usa ints
+//os ids são densos e crescentes, por isso as postings ficam ordenadas só com appends
+public class DocDictionary {
+    private volatile ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] urls = new String[1024];
+    private volatile int size;
+
+    public int idOf(String url) {
+        Integer id = ids.get(url);
+        return (id == null) ? -1 : id;
+    }
+
+    public int getOrAssign(String url) {
+        Integer id = ids.get(url);
+        if (id != null) return id;
+        synchronized (this) {
+            id = ids.get(url);
+            if (id != null) return id;
+            int n = size;
+            String[] u = urls;
+            if (n == u.length) {
+                u = Arrays.copyOf(u, n * 2);
+                urls = u;
+            }
+            u[n] = url;
+            size = n + 1;
+            ids.put(url, n);//só depois de urls[n] estar escrito
+            return n;
+        }
+    }
+
+    public String urlOf(int docId) {
+        String[] u = urls;
+        return (docId >= 0 && docId < u.length) ? u[docId] : null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        ids = new ConcurrentHashMap<>();
+        urls = new String[1024];
+        size = 0;
+    }
+}
@@ -0,0 +1,49 @@
+package googol.downloader;
+
+import java.util.Arrays;
+
+//nº de termos de cada página por docId (o tamanho do doc no BM25) e a média, para a query não ter de ler as páginas
+//0 = não se sabe (páginas de índices antigos); essas contam como um doc de tamanho médio
+public class DocLengths {
+    private volatile int[] lengths = new int[1024];
+    private long total;
+    private int counted;
+    private volatile double average;
+
+    public int get(int docId) {
+        int[] l = lengths;
+        return (docId >= 0 && docId < l.length) ? l[docId] : 0;
+    }
+
+    public double average() {
+        return average;
+    }
+
+    //uma página reindexada troca o tamanho antigo pelo novo
+    public synchronized void set(int docId, int length) {
+        if (length < 0) length = 0;
+        int[] l = lengths;
+        if (docId >= l.length) {
+            l = Arrays.copyOf(l, Math.max(l.length * 2, docId + 1));
+            lengths = l;
+        }
+        int old = l[docId];
+        if (old > 0) {
+            total -= old;
+            counted--;
+        }
+        if (length > 0) {
+            total += length;
+            counted++;
+        }
+        l[docId] = length;
+        average = (counted == 0) ? 0 : (double) total / counted;
+    }
+
+    public synchronized void clear() {
+        lengths = new int[1024];
+        total = 0;
+        counted = 0;
+        average = 0;
+    }
+}
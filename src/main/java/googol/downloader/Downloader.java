@@ -1,56 +1,114 @@
 package googol.downloader;
 
 import java.io.FileInputStream;
+import java.net.URI;
+import java.nio.file.Path;
 import java.rmi.Naming;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 
-import googol.common.BarrelService;
 import googol.common.GatewayService;
+import googol.common.Hashes;
+import googol.common.UrlCanonicalizer;
 import googol.common.dto.PageDTO;
 
 public class Downloader implements Runnable {
 
     private volatile GatewayService gateway;
-    private volatile BarrelService barrel1;
-    private volatile BarrelService barrel2;
+    //uma fila de entrega por barrel: cada réplica recebe todas as páginas, ao seu ritmo
+    private final List<BarrelQueue> replicas = new ArrayList<>();
 
     // Connection info para poder dar relookup
     private final String hostGateway;
     private final int portGateway;
-    private final String hostBarrel1;
-    private final int portBarrel1;
-    private final String hostBarrel2;
-    private final int portBarrel2;
     
     // Retry settings
     private final int connectionRetries;
     private final int retryDelay;
 
+    // Limites do pool de fetch: total de pedidos HTTP em curso e por host
+    private final Semaphore inFlight;
+    private final int maxPerHost;
+    //lugares por host; a entrada sai do mapa quando nenhum worker está a usar nem à espera desse host
+    //(senão ficava um semáforo por cada host que alguma vez se descarregou)
+    private static final class HostSlots {
+        final Semaphore permits;
+        int users;//só mexido dentro do compute do mapa
+
+        HostSlots(int n) { permits = new Semaphore(n); }
+    }
+    private final Map<String, HostSlots> hostSlots = new ConcurrentHashMap<>();
+    //só um worker faz relookup do gateway de cada vez, os outros aproveitam o stub novo
+    private final ReentrantLock reconnectLock = new ReentrantLock();
+    private final AtomicLong pagesIndexed = new AtomicLong();
+    private final AtomicLong rpcCalls = new AtomicLong();
+
+    // Batching dos pedidos à fila de urls do gateway
+    private final int takeBatch;
+    private final int putBatch;
+    private final long lingerMs;
+    private final long spoolSyncMs;
+    private final Queue<String> prefetched = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock takeLock = new ReentrantLock();
+    private final List<String> outbox = new ArrayList<>();
+    //o que já foi descarregado (url + hash do conteúdo), para o gateway agendar o recrawl; vai no mesmo flush
+    private record Crawled(String url, long hash) {}
+    private final List<Crawled> crawled = new ArrayList<>();
+
     public Downloader(String hostGateway, int portGateway,
                       String hostBarrel1, int portBarrel1,
                       String hostBarrel2, int portBarrel2,
-                      int connectionRetries, int retryDelay) throws Exception {
+                      int connectionRetries, int retryDelay,
+                      int maxInFlight, int maxPerHost,
+                      int takeBatch, int putBatch, long lingerMs,
+                      Path spoolDir, long spoolSyncMs, int deliveryBatch, long maxBackoffMs) throws Exception {
         this.hostGateway = hostGateway;
         this.portGateway = portGateway;
-        this.hostBarrel1 = hostBarrel1;
-        this.portBarrel1 = portBarrel1;
-        this.hostBarrel2 = hostBarrel2;
-        this.portBarrel2 = portBarrel2;
         this.connectionRetries = connectionRetries;
         this.retryDelay = retryDelay;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.maxPerHost = maxPerHost;
+        this.takeBatch = takeBatch;
+        this.putBatch = putBatch;
+        this.lingerMs = lingerMs;
+        this.spoolSyncMs = spoolSyncMs;
 
-        refreshGateway();
-        refreshBarrel1();
-        refreshBarrel2();
+        refreshGateway(null);
+        //os barrels ligam-se sozinhos na thread de entrega; um barrel em baixo não impede o arranque
+        replicas.add(new BarrelQueue("Barrel1", hostBarrel1, portBarrel1, spoolDir, deliveryBatch, retryDelay, maxBackoffMs, rpcCalls));
+        replicas.add(new BarrelQueue("Barrel2", hostBarrel2, portBarrel2, spoolDir, deliveryBatch, retryDelay, maxBackoffMs, rpcCalls));
+        replicas.forEach(BarrelQueue::start);
     }
 
-    private void refreshGateway() throws Exception {
+    //failed = stub que deu erro; se entretanto outro worker já o trocou não se faz nada
+    private void refreshGateway(GatewayService failed) throws Exception {
+        reconnectLock.lock();
+        try {
+            if (gateway != failed) return;
+            reconnectGateway();
+        } finally {
+            reconnectLock.unlock();
+        }
+    }
+
+    private void reconnectGateway() throws Exception {
         int retries = connectionRetries;
         while (retries-- > 0) {
             try {
@@ -65,59 +123,18 @@ public class Downloader implements Runnable {
         throw new Exception("Failed to connect to Gateway after multiple retries");
     }
 
-    private void refreshBarrel1() throws Exception {
-        int retries = connectionRetries;
-        while (retries-- > 0) {
-            try {
-                this.barrel1 = (BarrelService) Naming.lookup("rmi://" + hostBarrel1 + ":" + portBarrel1 + "/Barrel1");
-                System.out.println("[Downloader] Connected to Barrel 1 at " + hostBarrel1 + ":" + portBarrel1);
-                return;
-            } catch (Exception e) {
-                System.out.println("[Downloader] Barrel 1 not ready, retrying... (" + retries + " left)");
-                Thread.sleep(retryDelay);
-            }
-        }
-        throw new Exception("Failed to connect to Barrel 1 after multiple retries");
-    }
-
-    private void refreshBarrel2() throws Exception {
-        int retries = connectionRetries;
-        while (retries-- > 0) {
-            try {
-                this.barrel2 = (BarrelService) Naming.lookup("rmi://" + hostBarrel2 + ":" + portBarrel2 + "/Barrel2");
-                System.out.println("[Downloader] Connected to Barrel 2 at " + hostBarrel2 + ":" + portBarrel2);
-                return;
-            } catch (Exception e) {
-                System.out.println("[Downloader] Barrel 2 not ready, retrying... (" + retries + " left)");
-                Thread.sleep(retryDelay);
-            }
-        }
-        throw new Exception("Failed to connect to Barrel 2 after multiple retries");
-    }
-
+    //cada worker do pool corre este loop; os stubs e os limites são partilhados
     @Override
     public void run() {
         while (true) {
             try {
-                String url;
-                try {
-                    url = gateway.takeNext();
-                } catch (Exception ge) {
-                    System.err.println("[Downloader] Gateway call failed (takeNext): " + ge.getMessage());
-                    try { 
-                        refreshGateway();
-                    } catch (Exception e) {
-                        System.err.println("[Downloader] Failed to refresh Gateway: " + e.getMessage());
-                    }
-                    Thread.sleep(500);
-                    continue;
-                }
+                String url = nextUrl();
                 if (url == null) {
                     Thread.sleep(500); //poupar o pc
                     continue;
                 }
 
-                Document doc = Jsoup.connect(url).get();
+                Document doc = fetch(url);
 
                 //extract title e text
                 String title = (doc.title() != null) ? doc.title() : "";
@@ -127,85 +144,18 @@ public class Downloader implements Runnable {
 
                 //build pagedto
                 PageDTO page = new PageDTO(url, title, text, outgoing);
+                page.version = System.currentTimeMillis();
 
-                //send to barrels, se falhar tenta o outro, se falhar os 2 tenta outra vez
-                boolean delivered1 = false;
-                boolean delivered2 = false;
-
-                while (!(delivered1 || delivered2)) {
-                    if (!delivered1) {
-                        try {
-                            barrel1.sendPage(page);
-                            delivered1 = true; 
-                            System.out.println("[Downloader] Sent page to Barrel 1");
-                        } catch (Exception e1) {
-                            System.err.println("[Downloader] Failed to send page to Barrel 1: " + e1.getMessage());
-                            try {
-                                refreshBarrel1();
-                            } catch (Exception e) {
-                                System.err.println("[Downloader] Failed to refresh Barrel 1: " + e.getMessage());
-                            }
-                        }
-                    }
-                    if (!delivered2) {
-                        try {
-                            barrel2.sendPage(page);
-                            delivered2 = true;
-                            System.out.println("[Downloader] Sent page to Barrel 2");
-                        } catch (Exception e2) {
-                            System.err.println("[Downloader] Failed to send page to Barrel 2: " + e2.getMessage());
-                            try {
-                                refreshBarrel2();
-                            } catch (Exception e) {
-                                System.err.println("[Downloader] Failed to refresh Barrel 2: " + e.getMessage());
-                            }
-                        }
-                    }
-                    if (!(delivered1 || delivered2)) {
-                        System.out.println("[Downloader] Both barrels unavailable, waiting to retry...");
-                        Thread.sleep(2000);
-                    }
-                }
-                
-                // Try to send to the other barrel for redundancy
-                if(delivered1 && !delivered2){
-                    try {
-                        barrel2.sendPage(page);
-                        System.out.println("[Downloader] Also sent to Barrel 2");
-                    } catch (Exception e) {
-                        try {
-                            refreshBarrel2();
-                        } catch (Exception e2) {
-                            System.err.println("[Downloader] Failed to refresh Barrel 2: " + e.getMessage());
-                        }
-                    }
-                }
-                if(delivered2 && !delivered1){
-                    try {
-                        barrel1.sendPage(page);
-                        System.out.println("[Downloader] Also sent to Barrel 1");
-                    } catch (Exception e1) {
-                        try { 
-                            refreshBarrel1();
-                        } catch (Exception e2) {
-                            System.err.println("[Downloader] Failed to refresh Barrel 1: " + e2.getMessage());
-                        }
-                    }
-                }
+                //entra na fila de cada barrel; a entrega é assíncrona (e durável, via spool)
+                byte[] encoded = PageDTO.encode(page);
+                for (BarrelQueue r : replicas) r.offer(page, encoded);
 
+                pagesIndexed.incrementAndGet();
                 System.out.println("[Downloader] Indexed url "+url+ " (outgoing=" + outgoing.size() + ")");
 
-                //da queue aos links descobertos
-                if (delivered1 || delivered2) {
-                    for (String outurl : outgoing) {
-                        try { 
-                            gateway.putNewURL(outurl); 
-                        } catch (Exception e) {
-                            refreshGateway();
-                            System.err.println("[Downloader] Failed to queue outgoing URL: " + e.getMessage());
-                        }
-                    }
-                }
+                //da queue aos links descobertos (vão em lote no próximo flush)
+                queueOutgoing(outgoing);
+                queueCrawled(url, contentHash(title, text));
 
             } catch (InterruptedException ie) {
                 Thread.currentThread().interrupt();
@@ -215,14 +165,172 @@ public class Downloader implements Runnable {
         }
     }
 
+    //próximo url: do lote local, ou pede um lote novo ao gateway (só um worker de cada vez)
+    private String nextUrl() throws InterruptedException {
+        String url = prefetched.poll();
+        if (url != null) return url;
+        takeLock.lock();
+        try {
+            url = prefetched.poll();
+            if (url != null) return url;
+            GatewayService g = gateway;
+            try {
+                rpcCalls.incrementAndGet();
+                for (String u : g.takeNextBatch(takeBatch)) prefetched.add(u);
+            } catch (Exception ge) {
+                System.err.println("[Downloader] Gateway call failed (takeNextBatch): " + ge.getMessage());
+                try {
+                    refreshGateway(g);
+                } catch (Exception e) {
+                    System.err.println("[Downloader] Failed to refresh Gateway: " + e.getMessage());
+                }
+                Thread.sleep(500);
+            }
+        } finally {
+            takeLock.unlock();
+        }
+        return prefetched.poll();
+    }
+
+    //junta os links ao lote; manda logo se o lote encheu, senão espera pelo flush do lingerMs
+    private void queueOutgoing(Set<String> urls) {
+        List<String> batch = null;
+        synchronized (outbox) {
+            outbox.addAll(urls);
+            if (outbox.size() >= putBatch) {
+                batch = new ArrayList<>(outbox);
+                outbox.clear();
+            }
+        }
+        if (batch != null) sendOutgoing(batch);
+    }
+
+    private void flushOutgoing() {
+        flushCrawled();
+        List<String> batch;
+        synchronized (outbox) {
+            if (outbox.isEmpty()) return;
+            batch = new ArrayList<>(outbox);
+            outbox.clear();
+        }
+        sendOutgoing(batch);
+    }
+
+    //shutdown limpo: os links descobertos e os crawls por reportar (o flushOutgoing manda os dois)
+    //vão para o gateway antes de fechar os spools
+    private void shutdown() {
+        flushOutgoing();
+        replicas.forEach(BarrelQueue::close);
+    }
+
+    private void queueCrawled(String url, long hash) {
+        List<Crawled> batch = null;
+        synchronized (crawled) {
+            crawled.add(new Crawled(url, hash));
+            if (crawled.size() >= putBatch) {
+                batch = new ArrayList<>(crawled);
+                crawled.clear();
+            }
+        }
+        if (batch != null) sendCrawled(batch);
+    }
+
+    private void flushCrawled() {
+        List<Crawled> batch;
+        synchronized (crawled) {
+            if (crawled.isEmpty()) return;
+            batch = new ArrayList<>(crawled);
+            crawled.clear();
+        }
+        sendCrawled(batch);
+    }
+
+    private void sendCrawled(List<Crawled> batch) {
+        String[] urls = new String[batch.size()];
+        long[] hashes = new long[batch.size()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = batch.get(i).url();
+            hashes[i] = batch.get(i).hash();
+        }
+        GatewayService g = gateway;
+        try {
+            rpcCalls.incrementAndGet();
+            g.reportCrawled(urls, hashes);
+        } catch (Exception e) {
+            System.err.println("[Downloader] Failed to report " + batch.size() + " crawled URLs: " + e.getMessage());
+            //o refresh do stub fica para o sendOutgoing; aqui só não se perde o lote (com o mesmo limite)
+            synchronized (crawled) {
+                if (crawled.size() < putBatch * 10) crawled.addAll(batch);
+            }
+        }
+    }
+
+    //hash de 64 bits do titulo + texto (FNV-1a com mistura final, como o SeenUrls);
+    //só serve para o gateway ver se a página mudou desde o último crawl
+    private static long contentHash(String title, String text) {
+        return Hashes.mix(Hashes.fnv1a(Hashes.fnv1a(Hashes.fnv1a(title), "\n"), text));
+    }
+
+    private void sendOutgoing(List<String> batch) {
+        GatewayService g = gateway;
+        try {
+            rpcCalls.incrementAndGet();
+            g.putNewURLs(batch.toArray(String[]::new));
+        } catch (Exception e) {
+            System.err.println("[Downloader] Failed to queue " + batch.size() + " outgoing URLs: " + e.getMessage());
+            //volta para o lote, mas sem crescer sem limite se o gateway estiver em baixo muito tempo
+            synchronized (outbox) {
+                if (outbox.size() < putBatch * 10) outbox.addAll(batch);
+            }
+            try {
+                refreshGateway(g);
+            } catch (Exception e2) {
+                System.err.println("[Downloader] Failed to refresh Gateway: " + e2.getMessage());
+            }
+        }
+    }
+
+    //GET respeitando os limites: primeiro o lugar do host, depois o global
+    //(assim um worker à espera de um host ocupado não prende um lugar global)
+    private Document fetch(String url) throws Exception {
+        String h = hostOf(url);
+        HostSlots host = hostSlots.compute(h, (k, s) -> {
+            if (s == null) s = new HostSlots(maxPerHost);
+            s.users++;
+            return s;
+        });
+        try {
+            host.permits.acquire();
+            try {
+                inFlight.acquire();
+                try {
+                    return Jsoup.connect(url).get();
+                } finally {
+                    inFlight.release();
+                }
+            } finally {
+                host.permits.release();
+            }
+        } finally {
+            hostSlots.computeIfPresent(h, (k, s) -> (--s.users == 0) ? null : s);
+        }
+    }
+
+    private static String hostOf(String url) {
+        try {
+            String h = URI.create(url).getHost();
+            return (h == null) ? "" : h.toLowerCase();
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
     private static Set<String> collectOutgoingURLs(Document doc) {
         Set<String> outgoing = new LinkedHashSet<>();
         for (Element a : doc.select("a[href]")) {
-            String abs = a.attr("abs:href");
-            if (abs == null || abs.isBlank()) continue;
-            if (abs.startsWith("http://") || abs.startsWith("https://")) {
-                outgoing.add(abs);
-            }
+            //canónico, como os urls com que as páginas são guardadas (senão os incoming links não batem certo)
+            String link = UrlCanonicalizer.canonicalize(a.attr("abs:href"));
+            if (link != null) outgoing.add(link);
             if (outgoing.size() >= 100) break;//limite
         }
         return outgoing;
@@ -246,8 +354,61 @@ public class Downloader implements Runnable {
         int connectionRetries = Integer.parseInt(cfg.getProperty("connection.retries"));
         int retryDelay = Integer.parseInt(cfg.getProperty("connection.retryDelay"));
 
-        Downloader d = new Downloader(hostGateway, portGateway, hostBarrel1, portBarrel1, hostBarrel2, portBarrel2, connectionRetries, retryDelay);
-        new Thread(d, "downloader").start();//auto call ao run()
-        System.out.println("Downloader started.");
+        // Pool de workers (virtual threads por defeito: cada um passa quase todo o tempo à espera da rede)
+        int workers = Integer.parseInt(System.getenv().getOrDefault("CRAWLER_WORKERS", cfg.getProperty("crawler.workers", "16")));
+        boolean virtual = Boolean.parseBoolean(cfg.getProperty("crawler.virtualThreads", "true"));
+        int maxInFlight = Integer.parseInt(cfg.getProperty("crawler.maxInFlight", "16"));
+        int maxPerHost = Integer.parseInt(cfg.getProperty("crawler.maxPerHost", "2"));
+
+        // Lotes de urls trocados com o gateway
+        int takeBatch = Integer.parseInt(cfg.getProperty("frontier.takeBatch", "16"));
+        int putBatch = Integer.parseInt(cfg.getProperty("frontier.putBatch", "256"));
+        long lingerMs = Long.parseLong(cfg.getProperty("frontier.lingerMs", "200"));
+
+        // Filas de entrega aos barrels
+        Path spoolDir = Path.of(cfg.getProperty("delivery.spoolDir", "downloader_spool"));
+        long spoolSyncMs = Long.parseLong(cfg.getProperty("delivery.syncIntervalMs", "200"));
+        int deliveryBatch = Integer.parseInt(cfg.getProperty("delivery.batch", "16"));
+        long maxBackoffMs = Long.parseLong(cfg.getProperty("delivery.maxBackoffMs", "30000"));
+
+        Downloader d = new Downloader(hostGateway, portGateway, hostBarrel1, portBarrel1, hostBarrel2, portBarrel2,
+                                      connectionRetries, retryDelay, maxInFlight, maxPerHost,
+                                      takeBatch, putBatch, lingerMs,
+                                      spoolDir, spoolSyncMs, deliveryBatch, maxBackoffMs);
+        Runtime.getRuntime().addShutdownHook(new Thread(d::shutdown));
+        Thread.Builder builder = virtual ? Thread.ofVirtual().name("downloader-", 0) : Thread.ofPlatform().name("downloader-", 0);
+        List<Thread> pool = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            pool.add(builder.start(d));//auto call ao run()
+        }
+        d.startTimers();
+        System.out.println("Downloader started (" + workers + (virtual ? " virtual" : "") + " workers, maxInFlight=" + maxInFlight + ", maxPerHost=" + maxPerHost + ").");
+        //virtual threads são daemon: o main tem de ficar à espera
+        for (Thread t : pool) t.join();
+    }
+
+    //flush dos links a cada lingerMs, fsync dos spools a cada syncIntervalMs e paginas/s + RPCs por pagina + estado das filas a cada 10s
+    private void startTimers() {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "downloader-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::flushOutgoing, lingerMs, lingerMs, TimeUnit.MILLISECONDS);
+        timer.scheduleWithFixedDelay(() -> replicas.forEach(BarrelQueue::sync), spoolSyncMs, spoolSyncMs, TimeUnit.MILLISECONDS);
+        long[] last = { pagesIndexed.get(), rpcCalls.get() };
+        timer.scheduleAtFixedRate(() -> {
+            long pages = pagesIndexed.get();
+            long rpcs = rpcCalls.get();
+            long dp = pages - last[0];
+            long dr = rpcs - last[1];
+            System.out.printf("[Downloader] Throughput: %.1f pages/s, %.1f RPCs/page (%d total)%n",
+                    dp / 10.0, (dp == 0) ? 0.0 : (double) dr / dp, pages);
+            for (BarrelQueue r : replicas) {
+                System.out.println("[Downloader] " + r.name() + ": " + r.delivered() + " delivered, " + r.spooled() + " waiting in the spool");
+            }
+            last[0] = pages;
+            last[1] = rpcs;
+        }, 10, 10, TimeUnit.SECONDS);
     }
 }
@@ -0,0 +1,380 @@
+package googol.downloader;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+//ficheiro de índice binário, aberto com FileChannel.map: as pesquisas leem direto do ficheiro
+//e só o que é usado (ou alterado) passa para o heap
+//
+//layout (big-endian, offsets absolutos em int, por isso cada ficheiro tem no máximo 2GB):
+//  header: MAGIC, VERSION, e para cada secção (pages, terms, links, docs): [int tabela][int n]
+//  pages: registos [long versão][int nº termos][str title][int bytes do texto][int n][n bytes deflate][int n][n x docId outgoing]
+//                  [int bytes dos termos distintos (-1: não há)][int n][n bytes deflate]
+//         + tabela n x [docId][offset] ordenada por docId
+//         (VERSION 1: [str title][str text][outgoing]; VERSION 2: igual mas com a versão à frente; até ao 4 sem o nº de termos;
+//          até ao 5 sem os termos distintos)
+//  terms: registos [str term][int n][n x docId][int n][n x offset][int n][n bytes de posições] + tabela n x [offset]
+//         ordenada pelo termo; as posições do doc i começam no offset i (-1 se não tem, ver Positions); até ao VERSION 3 só os docIds
+//  links: registos [int n][n x docId]                            + tabela n x [docId][offset] ordenada por docId
+//  docs:  registos [str url]                                     + tabela n x [offset], índice = docId
+//  str = [int bytes][utf-8]
+public final class IndexSegment {
+    static final int MAGIC = 0x47494458;//"GIDX"
+    static final int VERSION = 6;
+
+    private final MappedByteBuffer buf;
+    private final int format;
+    private final int pagesTable, pageCount;
+    private final int termsTable, termCount;
+    private final int linksTable, linkCount;
+    private final int docsTable, docCount;
+
+    private IndexSegment(MappedByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.getInt(0) != MAGIC) throw new IOException("not an index segment");
+        format = buf.getInt(4);
+        if (format < 1 || format > VERSION) throw new IOException("unsupported index segment version " + format);
+        pagesTable = buf.getInt(8);  pageCount = buf.getInt(12);
+        termsTable = buf.getInt(16); termCount = buf.getInt(20);
+        linksTable = buf.getInt(24); linkCount = buf.getInt(28);
+        docsTable = buf.getInt(32);  docCount = buf.getInt(36);
+    }
+
+    public static boolean isSegment(Path file) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file.toFile()))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static IndexSegment open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) throw new IOException("index segment larger than 2GB: " + file);
+            //o mapping continua válido depois de fechar o canal
+            return new IndexSegment(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    // ---- docs ----
+    public int docCount() { return docCount; }
+    public String url(int docId) {
+        return readString(buf.getInt(docsTable + 4 * docId));
+    }
+
+    // ---- pages ----
+    public int pageCount() { return pageCount; }
+    public int pageDocId(int i) { return buf.getInt(pagesTable + 8 * i); }
+
+    public StoredPage page(int docId) {
+        int rec = find(pagesTable, pageCount, docId);
+        if (rec < 0) return null;
+        long version = 0;
+        if (format >= 2) {
+            version = buf.getLong(rec);
+            rec += 8;
+        }
+        int length = -1;
+        if (format >= 5) {
+            length = buf.getInt(rec);
+            rec += 4;
+        }
+        byte[] title = readBytes(rec);
+        rec += 4 + title.length;
+        if (format < 3) {
+            String text = readString(rec);
+            rec += 4 + buf.getInt(rec);
+            return StoredPage.of(version, length, new String(title, StandardCharsets.UTF_8), text, readInts(rec), null);
+        }
+        int textLength = buf.getInt(rec);
+        byte[] body = readBytes(rec + 4);
+        rec += 8 + body.length;
+        int[] outgoing = readInts(rec);
+        if (format < 6) return new StoredPage(version, length, title, body, textLength, outgoing, null, -1);
+        rec += 4 + 4 * outgoing.length;
+        int termsLength = buf.getInt(rec);
+        byte[] terms = (termsLength < 0) ? null : readBytes(rec + 4);
+        return new StoredPage(version, length, title, body, textLength, outgoing, terms, termsLength);
+    }
+
+    //só os links de saída, a saltar o título e o texto (para o PageRank percorrer o grafo todo)
+    public int[] outgoing(int docId) {
+        int rec = find(pagesTable, pageCount, docId);
+        if (rec < 0) return null;
+        if (format >= 2) rec += 8;
+        if (format >= 5) rec += 4;//nº de termos
+        rec += 4 + buf.getInt(rec);//title
+        if (format >= 3) rec += 4;//tamanho do texto
+        rec += 4 + buf.getInt(rec);//text / deflate
+        return readInts(rec);
+    }
+
+    //só o nº de termos (-1 se o ficheiro é de antes de se guardar), para carregar os tamanhos do BM25
+    public int length(int docId) {
+        int rec = find(pagesTable, pageCount, docId);
+        return (rec < 0 || format < 5) ? -1 : buf.getInt(rec + 8);
+    }
+
+    //só a versão, sem ler o resto da página (para os digests da sincronização)
+    public long pageVersion(int docId) {
+        int rec = find(pagesTable, pageCount, docId);
+        return (rec < 0 || format < 2) ? 0 : buf.getLong(rec);
+    }
+
+    // ---- terms ----
+    public int termCount() { return termCount; }
+    public String term(int i) { return readString(buf.getInt(termsTable + 4 * i)); }
+    public boolean hasTerm(String term) { return findTerm(term) >= 0; }
+
+    //arrays novos em cada chamada, podem ir direto para uma PostingList
+    public PostingList.Snapshot postings(String term) {
+        int rec = findTerm(term);
+        if (rec < 0) return null;
+        rec += 4 + buf.getInt(rec);
+        int[] docs = readInts(rec);
+        if (format < 4) return new PostingList.Snapshot(docs, docs.length);
+        rec += 4 + 4 * docs.length;
+        int[] offsets = readInts(rec);
+        if (offsets.length == 0) return new PostingList.Snapshot(docs, docs.length);
+        byte[] positions = readBytes(rec + 4 + 4 * offsets.length);
+        return new PostingList.Snapshot(docs, docs.length, offsets, positions);
+    }
+
+    //posições de um doc num termo, lidas direto do ficheiro sem copiar a lista toda
+    //null se o doc não está na lista, vazio se foi indexado sem posições
+    public int[] positions(String term, int docId) {
+        int rec = findTerm(term);
+        if (rec < 0) return null;
+        rec += 4 + buf.getInt(rec);
+        int n = buf.getInt(rec);
+        int lo = 0, hi = n - 1, i = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int key = buf.getInt(rec + 4 + 4 * mid);
+            if (key < docId) lo = mid + 1;
+            else if (key > docId) hi = mid - 1;
+            else {
+                i = mid;
+                break;
+            }
+        }
+        if (i < 0) return null;
+        if (format < 4) return new int[0];
+        int offsets = rec + 4 + 4 * n;
+        int count = buf.getInt(offsets);
+        if (count == 0) return new int[0];
+        int from = buf.getInt(offsets + 4 + 4 * i);
+        if (from < 0) return new int[0];
+        int bytes = offsets + 4 + 4 * count;
+        int to = buf.getInt(bytes);//fim = início do próximo doc com posições, ou o total
+        for (int j = i + 1; j < count; j++) {
+            int o = buf.getInt(offsets + 4 + 4 * j);
+            if (o >= 0) {
+                to = o;
+                break;
+            }
+        }
+        byte[] b = new byte[to - from];
+        buf.get(bytes + 4 + from, b);
+        return Positions.decode(b, 0);
+    }
+
+    //binary search na tabela de termos (ordenada por String.compareTo)
+    private int findTerm(String term) {
+        int lo = 0, hi = termCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int rec = buf.getInt(termsTable + 4 * mid);
+            int c = readString(rec).compareTo(term);
+            if (c < 0) lo = mid + 1;
+            else if (c > 0) hi = mid - 1;
+            else return rec;
+        }
+        return -1;
+    }
+
+    // ---- links ----
+    public int linkCount() { return linkCount; }
+    public int linkDocId(int i) { return buf.getInt(linksTable + 8 * i); }
+    public int[] inlinks(int docId) {
+        int rec = find(linksTable, linkCount, docId);
+        return (rec < 0) ? null : readInts(rec);
+    }
+    public int inlinkCount(int docId) {
+        int rec = find(linksTable, linkCount, docId);
+        return (rec < 0) ? 0 : buf.getInt(rec);
+    }
+
+    //tabela de pares [docId][offset] ordenada por docId -> offset do registo, ou -1
+    private int find(int table, int n, int docId) {
+        int lo = 0, hi = n - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int key = buf.getInt(table + 8 * mid);
+            if (key < docId) lo = mid + 1;
+            else if (key > docId) hi = mid - 1;
+            else return buf.getInt(table + 8 * mid + 4);
+        }
+        return -1;
+    }
+
+    //só leituras absolutas: o buffer é partilhado entre threads
+    private String readString(int pos) {
+        return new String(readBytes(pos), StandardCharsets.UTF_8);
+    }
+
+    private byte[] readBytes(int pos) {
+        byte[] b = new byte[buf.getInt(pos)];
+        buf.get(pos + 4, b);
+        return b;
+    }
+
+    private int[] readInts(int pos) {
+        int n = buf.getInt(pos);
+        int[] a = new int[n];
+        for (int i = 0; i < n; i++) a[i] = buf.getInt(pos + 4 + 4 * i);
+        return a;
+    }
+
+    //escreve as secções pela ordem do layout; as tabelas ficam no fim de cada secção
+    public static final class Writer implements Closeable {
+        private final Path file;
+        private final DataOutputStream out;
+        private final int[] header = new int[8];
+        private int section = -1;
+        private int[] table = new int[64];
+        private int tableSize;
+        private int entries;
+        private boolean pairs;
+
+        public Writer(Path file) throws IOException {
+            this.file = file;
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile()), 256 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (int i = 0; i < 8; i++) out.writeInt(0);//preenchido no close()
+        }
+
+        public void beginPages() throws IOException { begin(0, true); }
+        public void beginTerms() throws IOException { begin(1, false); }
+        public void beginLinks() throws IOException { begin(2, true); }
+        public void beginDocs() throws IOException { begin(3, false); }
+
+        //as páginas e os links têm de vir por ordem de docId, os termos por ordem de String.compareTo
+        public void page(int docId, StoredPage p) throws IOException {
+            key(docId);
+            out.writeLong(p.version);
+            out.writeInt(p.length);
+            writeBytes(p.titleBytes());
+            out.writeInt(p.textLength());
+            writeBytes(p.bodyBytes());
+            writeInts(p.outgoing(), p.outgoing().length);
+            out.writeInt(p.termsLength());
+            writeBytes((p.termsBytes() == null) ? new byte[0] : p.termsBytes());
+        }
+
+        //as posições são reescritas por ordem de docId (o que ficou de páginas substituídas não passa)
+        public void term(String term, PostingList.Snapshot s) throws IOException {
+            key(-1);
+            writeString(term);
+            writeInts(s.docs(), s.size());
+            if (!s.hasPositions()) {
+                out.writeInt(0);
+                out.writeInt(0);
+                return;
+            }
+            int[] offsets = new int[s.size()];
+            int total = 0;
+            for (int i = 0; i < s.size(); i++) {
+                int len = s.encodedLength(i);
+                offsets[i] = (len == 0) ? -1 : total;
+                total += len;
+            }
+            writeInts(offsets, offsets.length);
+            out.writeInt(total);
+            for (int i = 0; i < s.size(); i++) {
+                if (offsets[i] >= 0) out.write(s.positions(), s.offsets()[i], s.encodedLength(i));
+            }
+        }
+
+        public void links(int docId, int[] docs, int size) throws IOException {
+            key(docId);
+            writeInts(docs, size);
+        }
+
+        public void doc(String url) throws IOException {
+            key(-1);
+            writeString(url);
+        }
+
+        private void begin(int s, boolean withKeys) throws IOException {
+            endSection();
+            section = s;
+            pairs = withKeys;
+            tableSize = 0;
+            entries = 0;
+        }
+
+        private void key(int docId) throws IOException {
+            if (pairs) push(docId);
+            push(position());
+            entries++;
+        }
+
+        private void push(int v) {
+            if (tableSize == table.length) table = Arrays.copyOf(table, table.length * 2);
+            table[tableSize++] = v;
+        }
+
+        private void endSection() throws IOException {
+            if (section < 0) return;
+            header[2 * section] = position();
+            header[2 * section + 1] = entries;
+            for (int i = 0; i < tableSize; i++) out.writeInt(table[i]);
+        }
+
+        private int position() throws IOException {
+            //DataOutputStream.size() satura em Integer.MAX_VALUE
+            if (out.size() == Integer.MAX_VALUE) throw new IOException("index segment larger than 2GB");
+            return out.size();
+        }
+
+        private void writeString(String s) throws IOException {
+            writeBytes((s == null ? "" : s).getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void writeBytes(byte[] b) throws IOException {
+            out.writeInt(b.length);
+            out.write(b);
+        }
+
+        private void writeInts(int[] a, int n) throws IOException {
+            out.writeInt(n);
+            for (int i = 0; i < n; i++) out.writeInt(a[i]);
+        }
+
+        @Override
+        public void close() throws IOException {
+            endSection();
+            out.flush();
+            out.close();
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.seek(8);
+                for (int h : header) raf.writeInt(h);
+                raf.getFD().sync();
+            }
+        }
+    }
+}
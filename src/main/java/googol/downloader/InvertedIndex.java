@@ -1,128 +1,709 @@
 package googol.downloader;
 
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.Collections;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.Consumer;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Predicate;
 
+import googol.common.Query;
+import googol.common.Tokenizer;
+import googol.common.dto.PageDTO;
+
+//thread-safe: sendPage e searchWord chegam em paralelo das threads do RMI
+//cada mapa é concorrente e cada posting tem o seu próprio lock, por isso não há lock global
+//as postings guardam docIds (int) e só se traduz para url na borda (searchWord / getIncomingLinks)
+//o que foi carregado do disco fica num IndexSegment mapeado em memória; só passa para os mapas
+//quando é pesquisado ou alterado, por isso o heap só tem as estruturas "quentes"
+//um re-crawl compara com a versão anterior da página: as palavras e os links que desapareceram ficam marcados
+//em Tombstones (as leituras saltam-nos) e compact() tira-os das listas em background
 public class InvertedIndex {
-    private final Map<String, Set<String>> indexedItems = new HashMap<>();
-    private final Map<String, PageInfo> pages = new HashMap<>();
+    private final DocDictionary docs = new DocDictionary();
+    private final Map<String, PostingList> indexedItems = new ConcurrentHashMap<>();
+    private final Map<Integer, StoredPage> pages = new ConcurrentHashMap<>();
+    private final DocLengths lengths = new DocLengths();
+
+    private final Map<Integer, PostingList> incomingLinks = new ConcurrentHashMap<>();
+    //termo -> docIds que já não têm o termo; destino -> docIds que já não apontam para ele
+    private final Tombstones<String> deadTerms = new Tombstones<>();
+    private final Tombstones<Integer> deadLinks = new Tombstones<>();
+    //incrementa a cada página indexada, para quem faz cache de resultados saber se mudou algo
+    private final AtomicLong version = new AtomicLong();
 
-    public final Set<String> outgoingLinks = new HashSet<>();
-    private final Map<String, Set<String>> incomingLinks = new HashMap<>();
+    //segmento aberto no arranque (read-only); os mapas acima têm prioridade sobre ele
+    private volatile IndexSegment base;
+    //páginas/palavras que não existiam no base, para os totais não terem de o percorrer
+    private final AtomicInteger newPages = new AtomicInteger();
+    private final AtomicInteger newWords = new AtomicInteger();
+    //em modo sharded só se guardam as páginas deste shard e as ligações que apontam para elas
+    private volatile Predicate<String> owns = url -> true;
+    private volatile Tokenizer tokenizer = Tokenizer.DEFAULT;
 
     public int totalPages() { 
-        return pages.size();
+        IndexSegment b = base;
+        return (b == null) ? pages.size() : b.pageCount() + newPages.get();
     }
     public int totalWords() {
-        return indexedItems.size();
+        IndexSegment b = base;
+        return (b == null) ? indexedItems.size() : b.termCount() + newWords.get();
     }
     public int totalIncomingEdges() {
         int sum = 0;
-        for (java.util.Set<String> s : incomingLinks.values()){
+        for (PostingList s : incomingLinks.values()){
             sum += s.size();
         }
-        return sum;
+        IndexSegment b = base;
+        if (b != null) {
+            for (int i = 0; i < b.linkCount(); i++) {
+                int d = b.linkDocId(i);
+                if (!incomingLinks.containsKey(d)) sum += b.inlinkCount(d);
+            }
+        }
+        return sum - deadLinks.size();
     }
     
+    public void setOwnership(Predicate<String> owns) {
+        this.owns = owns;
+    }
+
+    //o mesmo que se usa para as queries (Query.parse)
+    public void setTokenizer(Tokenizer tokenizer) {
+        this.tokenizer = tokenizer;
+    }
+
     public void addToIndex(String url, String title, String text, Set<String> outgoingLinks) {
-        //dar load à data
-        PageInfo p = pages.computeIfAbsent(url, PageInfo::new);//se ja tinhamos info deste url, da return a essa info
-                                                               //senao cria uma nova PageInfo para esse url
-        p.title = (title == null) ? "" : title;
-        p.text = buildTexto(text);
-        p.outgoingLinks.clear();
-        if (outgoingLinks != null) p.outgoingLinks.addAll(outgoingLinks);
+        addPages(List.of(new PageDTO(url, title, text, outgoingLinks)));
+    }
 
-        //meter no inv index { "cão": [page1, page2], "gato": [page3] }
-        String[] tokens = text.toLowerCase().split("\\W+");
-        for (String word : tokens) {
-            if (word.isBlank()) continue;
-            indexedItems.computeIfAbsent(word, k -> new HashSet<>()).add(url);
+    //lote de páginas: primeiro junta os docIds por termo e por link de destino,
+    //depois cada posting list é procurada e trancada uma só vez por lote (e não uma vez por ocorrência)
+    //o mesmo url mais do que uma vez no lote fica só com a versão mais recente (empate: a última),
+    //e uma página que perde para uma versão mais nova já guardada não mexe nas listas
+    public void addPages(List<PageDTO> batch) {
+        Map<String, PageDTO> newest = new LinkedHashMap<>();
+        for (PageDTO page : batch) {
+            newest.merge(page.url, page, (a, b) -> (b.version < a.version) ? a : b);
         }
-        incomingLinks.computeIfAbsent(url, k -> new HashSet<>());
+        Map<String, Occurrences> terms = new HashMap<>();
+        Map<Integer, DocIds> links = new HashMap<>();
+        Map<Integer, StoredPage> kept = new HashMap<>();//a versão com que cada página fica no fim do lote
+        List<Map.Entry<Integer, StoredPage>> replaced = new ArrayList<>();//as que ela substituiu, para o diff
+        Predicate<String> mine = owns;
+        List<String> words = new ArrayList<>();
+        Set<String> distinct = new LinkedHashSet<>();
+        for (PageDTO page : newest.values()) {
+            int docId = docs.getOrAssign(page.url);
+            if (mine.test(page.url)) {
+                //meter no inv index { "cão": [doc1 @ 0 7, doc2 @ 3], "gato": [doc3 @ 1] }, a posição é o nº da palavra
+                //(vindo de outro barrel já traz os termos por ordem, o texto é só o resumo)
+                words.clear();
+                distinct.clear();
+                if (page.terms != null) {
+                    words.addAll(Arrays.asList(page.terms));
+                } else if (page.text != null) {
+                    tokenizer.tokenize(page.text, (word, start, end) -> words.add(word));
+                }
+                distinct.addAll(words);
+                StoredPage fresh = storedPage(page, words.size(), distinct.toArray(String[]::new));
+                StoredPage old = setPage(docId, fresh);
+                if (old == fresh) continue;//chegou atrasada: nem termos nem links
+                kept.put(docId, fresh);
+                if (old != null) replaced.add(Map.entry(docId, old));
+                for (int i = 0; i < words.size(); i++) terms.computeIfAbsent(words.get(i), w -> new Occurrences()).add(docId, i);
+            }
+            if (page.outgoing != null) {
+                for (String link : page.outgoing) {
+                    if (!mine.test(link)) continue;
+                    links.computeIfAbsent(docs.getOrAssign(link), t -> new DocIds()).add(docId);
+                }
+            }
+        }
+        //um par que volta a aparecer deixa de estar morto antes de entrar (ver compact)
+        terms.forEach((word, occ) -> occ.addTo(postings(word, true), ids -> deadTerms.revive(word, ids)));
+        links.forEach((target, ids) -> {
+            int[] sorted = ids.sorted();
+            deadLinks.revive(target, sorted);
+            inlinks(target, true).addAll(sorted);
+        });
+        bury(replaced, kept);
+        version.addAndGet(batch.size());
+    }
 
-        if(outgoingLinks !=null){
-            for (String link: outgoingLinks){
-                incomingLinks.computeIfAbsent(link, k -> new HashSet<>()).add(url);
-                //System.out.println("[InvertedIndex] Added incoming link: " + url + " -> " + link);
+    private StoredPage storedPage(PageDTO page, int length, String[] terms) {
+        int[] out = (page.outgoing == null) ? new int[0]
+                  : page.outgoing.stream().mapToInt(docs::getOrAssign).sorted().distinct().toArray();
+        return StoredPage.of(page.version, length, page.title, page.text, out, terms);
+    }
+
+    //devolve a versão que foi substituída (null se não havia), ou a própria fresh se chegou atrasada
+    private StoredPage setPage(int docId, StoredPage fresh) {
+        StoredPage[] result = new StoredPage[1];
+        //dois downloaders podem mandar o mesmo url ao mesmo tempo; fica o crawl mais recente
+        pages.compute(docId, (d, old) -> {
+            if (old == null) old = loadPage(d);
+            if (old != null && fresh.version < old.version) {
+                result[0] = fresh;
+                return old;
+            }
+            lengths.set(d, fresh.length);
+            result[0] = old;
+            return fresh;
+        });
+        return result[0];
+    }
+
+    //diff entre a versão com que cada página ficou e as outras do lote: os termos e os links que só as outras
+    //tinham e ainda estão nas listas passam a tombstones, juntos por lista como no addPages
+    private void bury(List<Map.Entry<Integer, StoredPage>> replaced, Map<Integer, StoredPage> kept) {
+        if (replaced.isEmpty()) return;
+        Map<String, DocIds> terms = new HashMap<>();
+        Map<Integer, DocIds> links = new HashMap<>();
+        for (Map.Entry<Integer, StoredPage> r : replaced) {
+            int docId = r.getKey();
+            StoredPage now = kept.get(docId);
+            String[] nowTerms = termsOf(now);
+            for (String t : termsOf(r.getValue())) {
+                if (Arrays.binarySearch(nowTerms, t) < 0) terms.computeIfAbsent(t, k -> new DocIds()).add(docId);
+            }
+            int[] nowOut = now.outgoing();
+            for (int target : r.getValue().outgoing()) {
+                if (Arrays.binarySearch(nowOut, target) < 0) links.computeIfAbsent(target, k -> new DocIds()).add(docId);
             }
         }
+        terms.forEach((t, ids) -> {
+            PostingList p = postings(t, false);
+            if (p != null) deadTerms.addAll(t, present(p.snapshot(), ids.sorted()));
+        });
+        links.forEach((target, ids) -> {
+            PostingList in = inlinks(target, false);
+            if (in != null) deadLinks.addAll(target, present(in.snapshot(), ids.sorted()));
+        });
     }
 
-    // search for pages containing all words
-        public Set<String> searchWord(String... words) {
-            Set<String> result = new HashSet<>();
-            boolean first = true;
+    //os ids (ordenados) que estão mesmo na lista
+    private static int[] present(PostingList.Snapshot s, int[] ids) {
+        int[] out = new int[ids.length];
+        int n = 0, from = 0;
+        for (int d : ids) {
+            from = PostingIntersection.gallop(s.docs(), from, s.size(), d);
+            if (from < s.size() && s.docs()[from] == d) out[n++] = d;
+        }
+        return Arrays.copyOf(out, n);
+    }
 
-            for (String w : words) {
-                Set<String> pagesWithWord = indexedItems.get(w.toLowerCase()); //retorna as paginas q teem esta palavra
-                if (pagesWithWord == null) return Collections.emptySet();
-                if (first) {
-                    result.addAll(pagesWithWord);//põe paginas q têm a palavra
-                    first = false;
-                } else {
-                    result.retainAll(pagesWithWord);//descarta aquelas q não contêm a nova palavra
+    //termos distintos, ordenados; as páginas de índices antigos não os têm e usa-se o texto guardado
+    //(cortado em StoredPage.MAX_TEXT_CHARS, por isso o que só aparecia depois disso fica nas listas)
+    private String[] termsOf(StoredPage p) {
+        String[] t = p.terms();
+        if (t == null) t = Arrays.stream(tokenizer.terms(p.text())).distinct().toArray(String[]::new);
+        Arrays.sort(t);
+        return t;
+    }
+
+    //tira das listas os pares das tombstones (uma cópia por lista) e reempacota as posições que ficaram
+    //com muito lixo de páginas reindexadas; corre em background, as leituras continuam em paralelo
+    public int compact() {
+        int removed = deadTerms.drain((t, ids) -> {
+            PostingList p = indexedItems.get(t);
+            if (p != null) p.removeAll(ids);
+        });
+        removed += deadLinks.drain((d, ids) -> {
+            PostingList p = incomingLinks.get(d);
+            if (p != null) p.removeAll(ids);
+        });
+        for (PostingList p : indexedItems.values()) p.compactPositions();
+        return removed;
+    }
+
+    //pares à espera de compact()
+    public int tombstones() {
+        return deadTerms.size() + deadLinks.size();
+    }
+
+    // ---- sincronização entre réplicas ----
+
+    //url -> versão de todas as páginas (memória + base)
+    public void forEachPageVersion(ObjLongConsumer<String> action) {
+        pages.forEach((d, p) -> action.accept(docs.urlOf(d), p.version));
+        IndexSegment b = base;
+        if (b == null) return;
+        for (int i = 0; i < b.pageCount(); i++) {
+            int d = b.pageDocId(i);
+            if (!pages.containsKey(d)) action.accept(docs.urlOf(d), b.pageVersion(d));
+        }
+    }
+
+    //links de saída (docIds) de cada página: (outgoing, docId); as do base são lidas do ficheiro sem passar para o heap
+    public void forEachOutgoing(ObjIntConsumer<int[]> action) {
+        pages.forEach((d, p) -> action.accept(p.outgoing(), d));
+        IndexSegment b = base;
+        if (b == null) return;
+        for (int i = 0; i < b.pageCount(); i++) {
+            int d = b.pageDocId(i);
+            if (!pages.containsKey(d)) action.accept(b.outgoing(d), d);
+        }
+    }
+
+    //docIds vão de 0 a docCount() - 1 (inclui urls que só se conhecem como link)
+    public int docCount() {
+        return docs.size();
+    }
+
+    public long pageVersion(String url) {
+        StoredPage p = getPage(url);
+        return (p == null) ? -1 : p.version;
+    }
+
+    //páginas prontas a mandar a outro barrel: texto guardado, links, versão e as palavras do texto por ordem
+    //os termos de cada página vêm do StoredPage e só se vão buscar as posições dela nessas listas,
+    //por isso o custo é o das páginas pedidas e não o do índice; ordena-se pelas posições e as palavras
+    //sem posições (índices antigos) vão para o fim
+    //páginas de segmentos antigos sem termos guardados ainda precisam de percorrer o dicionário (uma vez por lote)
+    public List<PageDTO> exportPages(Collection<String> urls) {
+        Map<Integer, PageDTO> byDoc = new HashMap<>();
+        Map<Integer, List<Map.Entry<Integer, String>>> termsByDoc = new HashMap<>();
+        List<Integer> untermed = new ArrayList<>();
+        for (String url : urls) {
+            int d = docs.idOf(url);
+            StoredPage p = (d < 0) ? null : getPage(d);
+            if (p == null) continue;
+            Set<String> out = new HashSet<>();
+            for (int o : p.outgoing()) out.add(docs.urlOf(o));
+            PageDTO dto = new PageDTO(url, p.title(), p.text(), out);
+            dto.version = p.version;
+            byDoc.put(d, dto);
+            List<Map.Entry<Integer, String>> words = new ArrayList<>();
+            termsByDoc.put(d, words);
+            String[] terms = p.terms();
+            if (terms == null) {
+                untermed.add(d);
+                continue;
+            }
+            for (String t : terms) {
+                if (!Tombstones.contains(deadTerms.get(t), d)) addWords(words, t, positionsOf(t, d));
+            }
+        }
+        if (byDoc.isEmpty()) return List.of();
+        if (!untermed.isEmpty()) scanTerms(untermed.stream().mapToInt(Integer::intValue).sorted().toArray(), termsByDoc);
+        List<PageDTO> result = new ArrayList<>(byDoc.size());
+        byDoc.forEach((d, dto) -> {
+            List<Map.Entry<Integer, String>> words = termsByDoc.get(d);
+            words.sort(Map.Entry.comparingByKey());
+            dto.terms = words.stream().map(Map.Entry::getValue).toArray(String[]::new);
+            result.add(dto);
+        });
+        return result;
+    }
+
+    //posições do doc no termo (na lista em memória, senão no base), null se não está lá
+    private int[] positionsOf(String t, int d) {
+        PostingList mem = indexedItems.get(t);
+        if (mem == null) {
+            IndexSegment b = base;
+            return (b == null) ? null : b.positions(t, d);
+        }
+        PostingList.Snapshot s = mem.snapshot();
+        int i = Arrays.binarySearch(s.docs(), 0, s.size(), d);
+        return (i < 0) ? null : s.positions(i);
+    }
+
+    private static void addWords(List<Map.Entry<Integer, String>> words, String t, int[] pos) {
+        if (pos == null) return;
+        if (pos.length == 0) words.add(Map.entry(Integer.MAX_VALUE, t));
+        for (int p : pos) words.add(Map.entry(p, t));
+    }
+
+    //páginas sem termos guardados: percorre o dicionário todo (em memória e no base) à procura delas
+    private void scanTerms(int[] wanted, Map<Integer, List<Map.Entry<Integer, String>>> termsByDoc) {
+        IndexSegment b = base;
+        Set<String> all = new HashSet<>(indexedItems.keySet());
+        if (b != null) for (int i = 0; i < b.termCount(); i++) all.add(b.term(i));
+        for (String t : all) {
+            int[] dead = deadTerms.get(t);
+            PostingList mem = indexedItems.get(t);
+            PostingList.Snapshot s = (mem != null) ? mem.snapshot() : b.postings(t);
+            for (int d : wanted) {
+                if (Tombstones.contains(dead, d)) continue;
+                int i = Arrays.binarySearch(s.docs(), 0, s.size(), d);
+                if (i >= 0) addWords(termsByDoc.get(d), t, s.positions(i));
+            }
+        }
+    }
+
+    //ocorrências de um termo num lote: docIds por ordem de chegada e as posições de cada um
+    private static final class Occurrences {
+        private int[] ids = new int[4];
+        private int[] starts = new int[4];//ids[i] tem as posições pos[starts[i] .. starts[i+1])
+        private int n;
+        private int[] pos = new int[8];
+        private int posCount;
+
+        //as ocorrências de uma página chegam seguidas (cada url aparece uma só vez por lote)
+        void add(int docId, int position) {
+            if (n == 0 || ids[n - 1] != docId) {
+                if (n == ids.length) {
+                    ids = Arrays.copyOf(ids, n * 2);
+                    starts = Arrays.copyOf(starts, n * 2);
                 }
+                ids[n] = docId;
+                starts[n++] = posCount;
             }
-            return result;
+            if (posCount == pos.length) pos = Arrays.copyOf(pos, posCount * 2);
+            pos[posCount++] = position;
         }
 
-    public PageInfo getPage(String url) {
-        return pages.get(url);
+        //ordena por docId e junta tudo à posting de uma vez (before recebe os docIds ordenados logo antes)
+        void addTo(PostingList list, Consumer<int[]> before) {
+            long[] order = new long[n];
+            for (int i = 0; i < n; i++) order[i] = ((long) ids[i] << 32) | i;
+            Arrays.sort(order);
+            int[] sortedIds = new int[n];
+            byte[][] encoded = new byte[n][];
+            for (int j = 0; j < n; j++) {
+                int i = (int) order[j];
+                int end = (i + 1 < n) ? starts[i + 1] : posCount;
+                sortedIds[j] = ids[i];
+                encoded[j] = Positions.encode(pos, starts[i], end);
+            }
+            before.accept(sortedIds);
+            list.addAll(sortedIds, encoded);
+        }
+    }
+
+    //docIds de um lote para um link; as repetições seguidas (mesma página) ficam logo de fora
+    private static final class DocIds {
+        private int[] ids = new int[4];
+        private int n;
+
+        void add(int docId) {
+            if (n > 0 && ids[n - 1] == docId) return;
+            if (n == ids.length) ids = Arrays.copyOf(ids, n * 2);
+            ids[n++] = docId;
+        }
+
+        int[] sorted() {
+            Arrays.sort(ids, 0, n);
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                if (k == 0 || ids[k - 1] != ids[i]) ids[k++] = ids[i];
+            }
+            return Arrays.copyOf(ids, k);
+        }
+    }
+
+    public long version() {
+        return version.get();
+    }
+
+    //postings de uma palavra: primeiro em memória, senão trazidas do base (e ficam em memória)
+    private PostingList postings(String word, boolean create) {
+        PostingList p = indexedItems.get(word);
+        if (p != null) return p;
+        IndexSegment b = base;
+        if (!create && (b == null || !b.hasTerm(word))) return null;
+        return indexedItems.computeIfAbsent(word, w -> {
+            PostingList.Snapshot stored = (b == null) ? null : b.postings(w);
+            if (stored != null) return new PostingList(stored);
+            if (b != null) newWords.incrementAndGet();
+            return new PostingList();
+        });
+    }
+
+    private PostingList inlinks(int docId, boolean create) {
+        PostingList p = incomingLinks.get(docId);
+        if (p != null) return p;
+        IndexSegment b = base;
+        int[] stored = (b == null) ? null : b.inlinks(docId);
+        if (!create && stored == null) return null;
+        return incomingLinks.computeIfAbsent(docId, d -> (stored != null) ? new PostingList(stored) : new PostingList());
+    }
+
+    //a página que o base tem para este docId (null se não tem: é uma página nova)
+    private StoredPage loadPage(int docId) {
+        IndexSegment b = base;
+        StoredPage stored = (b == null) ? null : b.page(docId);
+        if (stored == null && b != null) newPages.incrementAndGet();
+        return stored;
+    }
+
+    // search for pages containing all words; devolve docIds ordenados
+    public int[] searchDocs(String... words) {
+        Set<String> distinct = new HashSet<>();
+        List<PostingList.Snapshot> lists = new ArrayList<>(words.length);
+        for (String key : tokenizer.terms(String.join(" ", words))) {
+            if (!distinct.add(key)) continue;//termos repetidos não mudam o AND
+            int[] dead = deadTerms.get(key);
+            PostingList pagesWithWord = postings(key, false); //retorna as paginas q teem esta palavra
+            if (pagesWithWord == null) return new int[0];//uma palavra sem paginas => nenhum resultado
+            lists.add(live(pagesWithWord.snapshot(), dead));
+        }
+        return PostingIntersection.intersect(lists.toArray(PostingList.Snapshot[]::new));
+    }
+
+    //resultado de uma query: os k melhores (o melhor primeiro) com o score, e quantos docs bateram ao todo
+    public record Hits(int[] docs, double[] scores, int total) {}
+
+    //AND das palavras e depois, só nos docs que ficaram, o score:
+    //  BM25 das palavras (tf das postings, tamanho do doc em DocLengths) + prior(doc) (os links, dado pelo barrel)
+    //  + proximityWeight * proximidade (palavras/menor janela com todas, 1 = todas seguidas)
+    //as frases filtram e por isso as posições de todos os hits têm de ser vistas; sem frases, a proximidade é a parte
+    //cara (descodificar posições) e só se calcula quando o resto do score + o máximo dela ainda entra no top-k
+    //(a ideia do MaxScore: o que não pode mudar o top-k não se avalia)
+    //docs indexados sem posições: tf 1, proximidade 0 e as frases não filtram
+    public Hits search(Query q, int k, IntToDoubleFunction prior, double proximityWeight) {
+        if (q.isEmpty()) return new Hits(new int[0], new double[0], 0);
+        String[] words = q.words;
+        PostingList.Snapshot[] lists = new PostingList.Snapshot[words.length];
+        int[][] dead = new int[words.length][];//as tombstones antes do snapshot: um compact() a meio não deixa passar nada
+        Map<String, Integer> slot = new HashMap<>();
+        for (int j = 0; j < words.length; j++) {
+            dead[j] = deadTerms.get(words[j]);
+            PostingList p = postings(words[j], false);
+            if (p == null) return new Hits(new int[0], new double[0], 0);
+            lists[j] = p.snapshot();
+            slot.put(words[j], j);
+        }
+        int[] docs = PostingIntersection.intersect(lists);
+        int pages = totalPages();
+        double average = lengths.average();
+        double[] idf = new double[words.length];
+        for (int j = 0; j < words.length; j++) {
+            idf[j] = Bm25.idf(pages, lists[j].size() - (dead[j] == null ? 0 : dead[j].length));
+        }
+
+        TopK top = new TopK(k);
+        boolean proximity = words.length > 1;
+        boolean phrases = !q.phrases.isEmpty();
+        int total = 0;
+        int[] cursor = new int[words.length];//os hits vêm por ordem, por isso cada lista só anda para a frente
+        int[][] pos = new int[words.length][];
+        hits:
+        for (int d : docs) {
+            for (int[] gone : dead) if (Tombstones.contains(gone, d)) continue hits;
+            int length = lengths.get(d);
+            double score = 0;
+            boolean positional = true;
+            for (int j = 0; j < words.length; j++) {
+                int c = cursor[j] = PostingIntersection.gallop(lists[j].docs(), cursor[j], lists[j].size(), d);
+                int tf = lists[j].count(c);
+                positional &= tf > 0;
+                score += idf[j] * Bm25.tf(tf, length, average);
+            }
+            score += prior.applyAsDouble(d);
+            if (!proximity || !positional) {
+                total++;
+                top.offer(d, score);
+                continue;
+            }
+            boolean wanted = top.accepts(score + proximityWeight);
+            if (!wanted && !phrases) {
+                total++;
+                continue;
+            }
+            for (int j = 0; j < words.length; j++) pos[j] = lists[j].positions(cursor[j]);
+            if (phrases && !phrases(q.phrases, slot, pos)) continue;
+            total++;
+            if (wanted) top.offer(d, score + proximityWeight * words.length / Positions.minSpan(pos));
+        }
+        double[] scores = new double[top.size()];
+        return new Hits(top.drain(scores), scores, total);
+    }
+
+    private static boolean phrases(List<String[]> phrases, Map<String, Integer> slot, int[][] pos) {
+        for (String[] phrase : phrases) {
+            int[][] lists = new int[phrase.length][];
+            for (int i = 0; i < phrase.length; i++) lists[i] = pos[slot.get(phrase[i])];
+            if (!Positions.phrase(lists)) return false;
+        }
+        return true;
+    }
+
+    public Set<String> searchWord(String... words) {
+        return toUrls(searchDocs(words));
+    }
+
+    public String urlOf(int docId) {
+        return docs.urlOf(docId);
+    }
+    public StoredPage getPage(String url) {
+        int d = docs.idOf(url);
+        return (d < 0) ? null : getPage(d);
+    }
+    //páginas do base são só lidas do ficheiro, não ficam em memória
+    public StoredPage getPage(int docId) {
+        StoredPage p = pages.get(docId);
+        if (p != null) return p;
+        IndexSegment b = base;
+        return (b == null) ? null : b.page(docId);
     }
     public int incomingLinksCount(String url) {
-        return incomingLinks.getOrDefault(url, Set.of()).size();
+        return incomingLinksCount(docs.idOf(url));
+    }
+    public int incomingLinksCount(int docId) {
+        PostingList in = incomingLinks.get(docId);
+        if (in != null) return in.size() - deadLinks.count(docId);
+        IndexSegment b = base;
+        return (b == null) ? 0 : b.inlinkCount(docId);
     }
     public Set<String> getIncomingLinks(String url) {
-        System.out.println("[InvertedIndex] Looking for incoming links to: " + url);
-        System.out.println("[InvertedIndex] Total URLs with incoming links: " + incomingLinks.size());
-        Set<String> result = incomingLinks.getOrDefault(url, Set.of());
-        System.out.println("[InvertedIndex] Found " + result.size() + " incoming links for this URL");
-        if (result.isEmpty() && incomingLinks.containsKey(url)) {
-            System.out.println("[InvertedIndex] URL exists in map but has no incoming links");
-        } else if (!incomingLinks.containsKey(url)) {
-            System.out.println("[InvertedIndex] URL not found in incoming links map");
+        int d = docs.idOf(url);
+        int[] dead = deadLinks.get(d);
+        PostingList in = inlinks(d, false);
+        return (in == null) ? new HashSet<>() : toUrls(live(in.snapshot(), dead));
+    }
+
+    //o snapshot sem os pares mortos (só copia se há algum)
+    private static PostingList.Snapshot live(PostingList.Snapshot s, int[] dead) {
+        if (dead == null) return s;
+        int[] kept = new int[s.size()];
+        int[] offsets = s.hasPositions() ? new int[s.size()] : null;
+        int k = 0;
+        for (int i = 0; i < s.size(); i++) {
+            if (Tombstones.contains(dead, s.docs()[i])) continue;
+            kept[k] = s.docs()[i];
+            if (offsets != null) offsets[k] = s.offsets()[i];
+            k++;
         }
-        return new HashSet<>(result);
+        return new PostingList.Snapshot(kept, k, offsets, s.positions());
     }
 
-    private static String buildTexto(String text) {
-        if (text == null) return "";
-        String t = text.strip();
-        if (t.length() <= 100) return t;
-        return t.substring(0, 100) + "...";
+    private Set<String> toUrls(int[] ids) {
+        return toUrls(new PostingList.Snapshot(ids, ids.length));
+    }
+    private Set<String> toUrls(PostingList.Snapshot s) {
+        Set<String> urls = new HashSet<>();
+        for (int i = 0; i < s.size(); i++) urls.add(docs.urlOf(s.docs()[i]));
+        return urls;
     }
 
-    //save data
+    //save data: escreve um IndexSegment novo juntando o que está em memória com o base, já sem os pares mortos
+    //pode correr enquanto se indexa; o que chegar a meio pode ou não entrar (o log cobre isso)
     public synchronized void saveToDisk(String filePath) throws IOException {
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(filePath))) {
-            out.writeObject(pages);
-            out.writeObject(indexedItems);
-            out.writeObject(incomingLinks);
+        IndexSegment b = base;
+        try (IndexSegment.Writer w = new IndexSegment.Writer(Path.of(filePath))) {
+            w.beginPages();
+            int[] memPages = pages.keySet().stream().mapToInt(Integer::intValue).toArray();
+            for (int d : sortedUnion(memPages, (b == null) ? new int[0] : baseIds(b.pageCount(), b::pageDocId))) {
+                StoredPage p = getPage(d);
+                if (p != null) w.page(d, p);
+            }
+
+            w.beginTerms();
+            TreeSet<String> terms = new TreeSet<>(indexedItems.keySet());
+            if (b != null) for (int i = 0; i < b.termCount(); i++) terms.add(b.term(i));
+            for (String t : terms) {
+                int[] dead = deadTerms.get(t);
+                PostingList mem = indexedItems.get(t);
+                PostingList.Snapshot s = live((mem != null) ? mem.snapshot() : b.postings(t), dead);
+                if (s.size() > 0) w.term(t, s);
+            }
+
+            w.beginLinks();
+            int[] memLinks = incomingLinks.keySet().stream().mapToInt(Integer::intValue).toArray();
+            for (int d : sortedUnion(memLinks, (b == null) ? new int[0] : baseIds(b.linkCount(), b::linkDocId))) {
+                int[] dead = deadLinks.get(d);
+                PostingList mem = incomingLinks.get(d);
+                if (mem != null) {
+                    PostingList.Snapshot s = live(mem.snapshot(), dead);
+                    w.links(d, s.docs(), s.size());
+                } else {
+                    int[] stored = b.inlinks(d);
+                    w.links(d, stored, stored.length);
+                }
+            }
+
+            //o dicionário vai no fim para incluir todos os docIds usados acima
+            w.beginDocs();
+            int n = docs.size();
+            for (int i = 0; i < n; i++) w.doc(docs.urlOf(i));
         }
     }
 
-    //load data
+    private static int[] baseIds(int n, IntUnaryOperator idAt) {
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++) ids[i] = idAt.applyAsInt(i);
+        return ids;
+    }
+
+    private static int[] sortedUnion(int[] a, int[] b) {
+        int[] all = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, all, a.length, b.length);
+        return Arrays.stream(all).sorted().distinct().toArray();
+    }
+
+    //load data: segmento binário (mapeado) ou o ficheiro antigo do ObjectOutputStream
     @SuppressWarnings("unchecked") //para tirar os avisos amarelos
     public synchronized void loadFromDisk(String filePath) throws IOException {
+        Path file = Path.of(filePath);
+        if (IndexSegment.isSegment(file)) {
+            IndexSegment seg = IndexSegment.open(file);
+            clear();
+            for (int i = 0; i < seg.docCount(); i++) docs.getOrAssign(seg.url(i));
+            for (int i = 0; i < seg.pageCount(); i++) {
+                int d = seg.pageDocId(i);
+                lengths.set(d, seg.length(d));
+            }
+            base = seg;
+            version.incrementAndGet();
+            return;
+        }
         try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(filePath))) {
-            pages.clear();
-            indexedItems.clear();
-            incomingLinks.clear();
-            
-            pages.putAll((Map<String, PageInfo>) in.readObject());
-            indexedItems.putAll((Map<String, Set<String>>) in.readObject());
-            incomingLinks.putAll((Map<String, Set<String>>) in.readObject());
-        } catch (ClassNotFoundException e) {
+            //formato antigo: pages, term -> urls, url -> urls
+            loadLegacy((Map<String, PageInfo>) in.readObject(),
+                       (Map<String, Set<String>>) in.readObject(),
+                       (Map<String, Set<String>>) in.readObject());
+        } catch (ClassNotFoundException | ClassCastException e) {
             throw new IOException("Failed to load index: " + e.getMessage(), e);
         }
     }
+
+    private void loadLegacy(Map<String, PageInfo> oldPages, Map<String, Set<String>> oldItems, Map<String, Set<String>> oldLinks) {
+        clear();
+        oldPages.keySet().forEach(docs::getOrAssign);
+        oldPages.forEach((u, p) -> {
+            int[] out = p.outgoingLinks.stream().mapToInt(docs::getOrAssign).sorted().distinct().toArray();
+            pages.put(docs.idOf(u), StoredPage.of(p.version, -1, p.title, p.text, out, null));
+        });
+        oldItems.forEach((w, urls) -> indexedItems.put(w, toPostings(urls)));
+        oldLinks.forEach((u, urls) -> incomingLinks.put(docs.getOrAssign(u), toPostings(urls)));
+        version.incrementAndGet();
+    }
+
+    private PostingList toPostings(Collection<String> urls) {
+        PostingList list = new PostingList();
+        for (String u : urls) list.add(docs.getOrAssign(u));
+        return list;
+    }
+
+    private void clear() {
+        base = null;
+        newPages.set(0);
+        newWords.set(0);
+        docs.clear();
+        lengths.clear();
+        pages.clear();
+        deadTerms.clear();
+        deadLinks.clear();
+        indexedItems.clear();
+        incomingLinks.clear();
+    }
 }
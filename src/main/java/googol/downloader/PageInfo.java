@@ -4,10 +4,16 @@ import java.io.Serializable;
 import java.util.HashSet;
 import java.util.Set;
 
+//formato das páginas no ficheiro antigo (ObjectOutputStream); em memória o índice usa StoredPage
 public class PageInfo implements Serializable {
+    //o mesmo uid da versão original, para os ficheiros de índice antigos continuarem a abrir
+    private static final long serialVersionUID = 3321678358987630221L;
+
     public final String url;
-    public String title;
-    public String text;
+    //volatile porque o search lê sem lock enquanto o sendPage escreve
+    public volatile String title;
+    public volatile String text;
+    public volatile long version;//versão do PageDTO que deu este conteúdo (0 nos ficheiros antigos)
     public final Set<String> outgoingLinks = new HashSet<>();
 
     public PageInfo(String url) { this.url = url; }
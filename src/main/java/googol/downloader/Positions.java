@@ -0,0 +1,105 @@
+package googol.downloader;
+
+import java.util.Arrays;
+
+//posições de um termo num doc (índice da palavra no texto), comprimidas: [varint n][n varints com a diferença para a anterior]
+//a maior parte das diferenças cabe em 1 byte, por isso fica ~1 byte por ocorrência em vez de 4
+//cada registo diz quantas posições tem, por isso basta saber onde começa (ver PostingList)
+public final class Positions {
+    private Positions() {}
+
+    //pos[from..to), ordenado
+    public static byte[] encode(int[] pos, int from, int to) {
+        byte[] out = new byte[5 * (to - from + 1)];
+        int k = writeVarint(out, 0, to - from);
+        int prev = 0;
+        for (int i = from; i < to; i++) {
+            k = writeVarint(out, k, pos[i] - prev);
+            prev = pos[i];
+        }
+        return Arrays.copyOf(out, k);
+    }
+
+    //o registo que começa em from (-1: sem posições)
+    public static int[] decode(byte[] buf, int from) {
+        if (from < 0) return new int[0];
+        int[] cursor = { from };
+        int[] pos = new int[readVarint(buf, cursor)];
+        int prev = 0;
+        for (int i = 0; i < pos.length; i++) {
+            prev += readVarint(buf, cursor);
+            pos[i] = prev;
+        }
+        return pos;
+    }
+
+    //número de ocorrências sem descodificar o resto
+    public static int count(byte[] buf, int from) {
+        return (from < 0) ? 0 : readVarint(buf, new int[] { from });
+    }
+
+    //tamanho em bytes do registo
+    static int length(byte[] buf, int from) {
+        if (from < 0) return 0;
+        int[] cursor = { from };
+        int n = readVarint(buf, cursor);
+        for (int i = 0; i < n; i++) readVarint(buf, cursor);
+        return cursor[0] - from;
+    }
+
+    //há um p em first com p+1 em rest[0], p+2 em rest[1], ...? (listas ordenadas)
+    static boolean phrase(int[][] lists) {
+        int[] idx = new int[lists.length];
+        for (int p : lists[0]) {
+            boolean all = true;
+            for (int j = 1; j < lists.length && all; j++) {
+                int[] l = lists[j];
+                int want = p + j;
+                while (idx[j] < l.length && l[idx[j]] < want) idx[j]++;
+                if (idx[j] == l.length) return false;//uma lista acabou, não há mais hipóteses
+                all = l[idx[j]] == want;
+            }
+            if (all) return true;
+        }
+        return false;
+    }
+
+    //menor janela (em palavras) com uma ocorrência de cada lista: merge das listas com um ponteiro por lista
+    static int minSpan(int[][] lists) {
+        int[] idx = new int[lists.length];
+        int best = Integer.MAX_VALUE;
+        while (true) {
+            int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE, loList = -1;
+            for (int j = 0; j < lists.length; j++) {
+                if (idx[j] == lists[j].length) return best;
+                int p = lists[j][idx[j]];
+                if (p < lo) { lo = p; loList = j; }
+                if (p > hi) hi = p;
+            }
+            best = Math.min(best, hi - lo + 1);
+            if (best == lists.length) return best;//não há melhor do que as palavras todas seguidas
+            idx[loList]++;
+        }
+    }
+
+    private static int writeVarint(byte[] out, int k, int v) {
+        while ((v & ~0x7F) != 0) {
+            out[k++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out[k++] = (byte) v;
+        return k;
+    }
+
+    private static int readVarint(byte[] buf, int[] cursor) {
+        int k = cursor[0], v = 0, shift = 0;
+        byte b;
+        do {
+            b = buf[k++];
+            v |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        cursor[0] = k;
+        return v;
+    }
+}
@@ -0,0 +1,71 @@
+package googol.downloader;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+//AND de várias postings ordenadas
+//começa pela lista mais pequena (menor document frequency), para o resultado nunca ser maior do que ela,
+//e procura nas listas grandes por galloping (saltos 1,2,4,8... e depois binary search)
+public final class PostingIntersection {
+    //abaixo deste rácio de tamanhos o merge linear é mais rápido do que o galloping
+    private static final int GALLOP_RATIO = 8;
+
+    private PostingIntersection() {}
+
+    public static int[] intersect(PostingList.Snapshot... lists) {
+        if (lists.length == 0) return new int[0];
+        PostingList.Snapshot[] ordered = lists.clone();
+        Arrays.sort(ordered, Comparator.comparingInt(PostingList.Snapshot::size));
+        if (ordered[0].size() == 0) return new int[0];
+
+        int[] result = Arrays.copyOf(ordered[0].docs(), ordered[0].size());
+        int size = result.length;
+        for (int i = 1; i < ordered.length && size > 0; i++) {
+            PostingList.Snapshot other = ordered[i];
+            if (other.size() >= size * GALLOP_RATIO) {
+                size = gallopInto(result, size, other.docs(), other.size());
+            } else {
+                size = mergeInto(result, size, other.docs(), other.size());
+            }
+        }
+        return (size == result.length) ? result : Arrays.copyOf(result, size);
+    }
+
+    //o resultado fica em a[0..k)
+    static int mergeInto(int[] a, int aSize, int[] b, int bSize) {
+        int i = 0, j = 0, k = 0;
+        while (i < aSize && j < bSize) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else { a[k++] = a[i++]; j++; }
+        }
+        return k;
+    }
+
+    static int gallopInto(int[] a, int aSize, int[] b, int bSize) {
+        int k = 0, lo = 0;
+        for (int i = 0; i < aSize; i++) {
+            lo = gallop(b, lo, bSize, a[i]);
+            if (lo >= bSize) break;//b acabou, não há mais matches
+            if (b[lo] == a[i]) a[k++] = a[i];
+        }
+        return k;
+    }
+
+    //primeiro índice >= from com b[idx] >= target (ou bSize)
+    static int gallop(int[] b, int from, int bSize, int target) {
+        if (from >= bSize || b[from] >= target) return from;
+        int step = 1;
+        int lo = from;
+        int hi = from + 1;
+        while (hi < bSize && b[hi] < target) {
+            lo = hi;
+            step <<= 1;
+            hi = from + step;
+        }
+        hi = Math.min(hi, bSize);
+        //b[lo] < target <= b[hi]
+        int pos = Arrays.binarySearch(b, lo + 1, hi, target);
+        return (pos >= 0) ? pos : -pos - 1;
+    }
+}
@@ -0,0 +1,224 @@
+package googol.downloader;
+
+import java.util.Arrays;
+
+//lista de docIds ordenada num int[] primitivo (em vez de um HashSet<String> de urls)
+//só se escreve depois de size ou numa cópia nova do array, por isso um Snapshot nunca muda
+//as postings dos termos guardam também as posições (ver Positions) num byte[] onde só se acrescenta:
+//offsets[i] é onde começam as do docs[i] (-1 se não tem), por isso um insert a meio só copia os int[]
+//e não as posições; as dos links não têm posições (offsets == null)
+//o que fica para trás no byte[] (páginas reindexadas ou removidas) conta como lixo e compactPositions() reempacota
+public class PostingList {
+    private int[] docs;
+    private int size;
+    private int[] offsets;
+    private byte[] positions;
+    private int positionsEnd;
+    private int garbage;//bytes em positions que já não são de nenhum doc
+
+    //vista imutável: docs[0..size) ordenado, e as posições de cada um
+    public record Snapshot(int[] docs, int size, int[] offsets, byte[] positions) {
+        public static final Snapshot EMPTY = new Snapshot(new int[0], 0);
+
+        public Snapshot(int[] docs, int size) {
+            this(docs, size, null, null);
+        }
+
+        public boolean hasPositions() {
+            return offsets != null;
+        }
+
+        //posições do docs[i]; vazio se foi indexado sem posições
+        public int[] positions(int i) {
+            return (offsets == null) ? new int[0] : Positions.decode(positions, offsets[i]);
+        }
+
+        //número de ocorrências no docs[i] (0 se não há posições)
+        public int count(int i) {
+            return (offsets == null) ? 0 : Positions.count(positions, offsets[i]);
+        }
+
+        //bytes das posições do docs[i] (para o IndexSegment gravar sem descodificar)
+        int encodedLength(int i) {
+            return (offsets == null) ? 0 : Positions.length(positions, offsets[i]);
+        }
+    }
+
+    public PostingList() {
+        this.docs = new int[2];
+    }
+
+    //a partir de docIds já ordenados (ex: lidos de um IndexSegment)
+    public PostingList(int[] sorted) {
+        this.docs = (sorted.length == 0) ? new int[2] : sorted;
+        this.size = sorted.length;
+    }
+
+    //idem, com as posições; os arrays do snapshot passam a ser desta lista (ex: acabados de ler de um IndexSegment)
+    PostingList(Snapshot s) {
+        this(s.docs());
+        if (s.hasPositions() && s.size() > 0) {
+            this.offsets = s.offsets();
+            this.positions = s.positions();
+            this.positionsEnd = s.positions().length;
+        }
+    }
+
+    public synchronized boolean add(int docId) {
+        if (offsets != null) {
+            int before = size;
+            addAll(new int[] { docId }, null);
+            return size > before;
+        }
+        int n = size;
+        //caso normal: docIds novos são sempre os maiores
+        if (n == 0 || docs[n - 1] < docId) {
+            if (n == docs.length) docs = Arrays.copyOf(docs, grow(n));
+            docs[n] = docId;
+            size = n + 1;
+            return true;
+        }
+        int pos = Arrays.binarySearch(docs, 0, n, docId);
+        if (pos >= 0) return false;
+        //inserir no meio: copy-on-write para não mexer no que os leitores já viram
+        int ins = -pos - 1;
+        int[] copy = new int[n == docs.length ? grow(n) : docs.length];
+        System.arraycopy(docs, 0, copy, 0, ins);
+        copy[ins] = docId;
+        System.arraycopy(docs, ins, copy, ins + 1, n - ins);
+        docs = copy;
+        size = n + 1;
+        return true;
+    }
+
+    //vários docIds de uma vez (ordenados e sem repetidos): um só lock e no máximo uma cópia do array
+    public synchronized void addAll(int[] ids) {
+        addAll(ids, null);
+    }
+
+    //pos[i] são as posições codificadas de ids[i] (ou pos == null, sem posições)
+    //um doc que já estava fica com as posições novas (é a versão mais recente da página)
+    public synchronized void addAll(int[] ids, byte[][] pos) {
+        if (ids.length == 0) return;
+        if (pos != null && offsets == null) {
+            //primeira vez com posições: os docs que já cá estavam ficam sem
+            offsets = new int[docs.length];
+            Arrays.fill(offsets, -1);
+            positions = new byte[64];
+        }
+        //as posições novas vão sempre para o fim, seja qual for o sítio do doc
+        int[] at = null;
+        if (offsets != null) {
+            at = new int[ids.length];
+            for (int j = 0; j < ids.length; j++) at[j] = (pos == null) ? -1 : appendPositions(pos[j]);
+        }
+        int n = size;
+        if (n == 0 || docs[n - 1] < ids[0]) {
+            if (n + ids.length > docs.length) docs = Arrays.copyOf(docs, Math.max(grow(n), n + ids.length));
+            if (offsets != null) {
+                if (offsets.length < docs.length) offsets = Arrays.copyOf(offsets, docs.length);
+                System.arraycopy(at, 0, offsets, n, ids.length);
+            }
+            System.arraycopy(ids, 0, docs, n, ids.length);
+            size = n + ids.length;
+            return;
+        }
+        //merge para arrays novos (copy-on-write, como no add)
+        int cap = Math.max(docs.length, n + ids.length);
+        int[] merged = new int[cap];
+        int[] mergedOffsets = (offsets == null) ? null : new int[cap];
+        int i = 0, j = 0, k = 0;
+        while (i < n || j < ids.length) {
+            boolean fromOld = i < n && (j == ids.length || docs[i] <= ids[j]);
+            boolean fromNew = j < ids.length && (i == n || ids[j] <= docs[i]);
+            merged[k] = fromOld ? docs[i] : ids[j];
+            if (mergedOffsets != null) {
+                boolean replaced = fromNew && (pos != null || !fromOld);
+                if (replaced && fromOld && offsets[i] >= 0) garbage += Positions.length(positions, offsets[i]);
+                mergedOffsets[k] = replaced ? at[j] : offsets[i];
+            }
+            if (fromOld) i++;
+            if (fromNew) j++;
+            k++;
+        }
+        docs = merged;
+        offsets = mergedOffsets;
+        size = k;
+    }
+
+    //tira estes docIds (ordenados) de uma vez, para arrays novos como no merge; devolve quantos estavam cá
+    public synchronized int removeAll(int[] ids) {
+        int n = size;
+        int[] kept = new int[docs.length];
+        int[] keptOffsets = (offsets == null) ? null : new int[kept.length];
+        int j = 0, k = 0;
+        for (int i = 0; i < n; i++) {
+            int d = docs[i];
+            while (j < ids.length && ids[j] < d) j++;
+            if (j < ids.length && ids[j] == d) {
+                if (offsets != null && offsets[i] >= 0) garbage += Positions.length(positions, offsets[i]);
+                continue;
+            }
+            kept[k] = d;
+            if (keptOffsets != null) keptOffsets[k] = offsets[i];
+            k++;
+        }
+        if (k == n) return 0;
+        docs = kept;
+        offsets = keptOffsets;
+        size = k;
+        compactPositions();
+        return n - k;
+    }
+
+    //se mais de metade do byte[] é lixo, copia só as posições dos docs atuais para um array novo
+    //(os snapshots antigos ficam com o array antigo, como sempre)
+    public synchronized boolean compactPositions() {
+        if (offsets == null || garbage == 0 || garbage * 2 < positionsEnd) return false;
+        int[] lengths = new int[size];
+        int live = 0;
+        for (int i = 0; i < size; i++) {
+            lengths[i] = Positions.length(positions, offsets[i]);
+            live += lengths[i];
+        }
+        byte[] packed = new byte[Math.max(64, live)];
+        int[] moved = new int[docs.length];
+        int end = 0;
+        for (int i = 0; i < size; i++) {
+            if (offsets[i] < 0) {
+                moved[i] = -1;
+                continue;
+            }
+            System.arraycopy(positions, offsets[i], packed, end, lengths[i]);
+            moved[i] = end;
+            end += lengths[i];
+        }
+        offsets = moved;
+        positions = packed;
+        positionsEnd = end;
+        garbage = 0;
+        return true;
+    }
+
+    //devolve onde ficou
+    private int appendPositions(byte[] p) {
+        if (positionsEnd + p.length > positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(grow(positions.length), positionsEnd + p.length));
+        }
+        System.arraycopy(p, 0, positions, positionsEnd, p.length);
+        positionsEnd += p.length;
+        return positionsEnd - p.length;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(docs, size, offsets, positions);
+    }
+
+    private static int grow(int n) {
+        return n + (n >> 1) + 1;
+    }
+}
@@ -0,0 +1,150 @@
+package googol.downloader;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import googol.common.Tokenizer;
+
+//o que o barrel guarda de cada página, compacto e imutável (trocar = meter um objeto novo no mapa):
+//título em utf-8, o início do texto comprimido com deflate e os links como docIds ordenados
+//(em vez do PageInfo com Strings e um HashSet<String> de urls)
+//o texto só é descomprimido para fazer o snippet dos resultados que vão ser mostrados
+//os termos distintos (pela ordem em que aparecem, também em deflate) servem para um re-crawl saber que palavras desapareceram
+public final class StoredPage {
+    public static final int MAX_TEXT_CHARS = 4000;//chega para snippets; o índice tem o texto todo
+    private static final int SNIPPET_CHARS = 160;
+
+    public final long version;
+    public final int length;//nº de termos indexados (o tamanho do doc para o BM25), -1 se não se sabe
+    private final byte[] title;
+    private final byte[] body;//deflate (sem header zlib) do texto, já cortado
+    private final int textLength;//em bytes utf-8, para o inflate saber o tamanho
+    private final int[] outgoing;
+    private final byte[] terms;//deflate de "termo termo ...", null se não se sabe (índices antigos)
+    private final int termsLength;
+
+    StoredPage(long version, int length, byte[] title, byte[] body, int textLength, int[] outgoing, byte[] terms, int termsLength) {
+        this.version = version;
+        this.length = length;
+        this.title = title;
+        this.body = body;
+        this.textLength = textLength;
+        this.outgoing = outgoing;
+        this.terms = terms;
+        this.termsLength = termsLength;
+    }
+
+    //terms: os termos distintos da página (ou null se não se sabem)
+    static StoredPage of(long version, int length, String title, String text, int[] outgoing, String[] terms) {
+        String t = (text == null) ? "" : text.strip();
+        if (t.length() > MAX_TEXT_CHARS) {
+            //não cortar a meio de um par surrogate (emoji, etc.), senão o UTF-8 fica com um '?'
+            int cut = Character.isHighSurrogate(t.charAt(MAX_TEXT_CHARS - 1)) ? MAX_TEXT_CHARS - 1 : MAX_TEXT_CHARS;
+            t = t.substring(0, cut);
+        }
+        byte[] raw = t.getBytes(StandardCharsets.UTF_8);
+        byte[] rawTerms = (terms == null) ? null : String.join(" ", terms).getBytes(StandardCharsets.UTF_8);
+        return new StoredPage(version, length, (title == null ? "" : title).getBytes(StandardCharsets.UTF_8),
+                deflate(raw), raw.length, outgoing,
+                (rawTerms == null) ? null : deflate(rawTerms), (rawTerms == null) ? -1 : rawTerms.length);
+    }
+
+    public String title() {
+        return new String(title, StandardCharsets.UTF_8);
+    }
+
+    public String text() {
+        return new String(inflate(body, textLength), StandardCharsets.UTF_8);
+    }
+
+    public int[] outgoing() {
+        return outgoing;
+    }
+
+    //termos distintos, pela ordem do texto; null se a página veio de um índice que não os guardava
+    public String[] terms() {
+        if (terms == null) return null;
+        if (termsLength == 0) return new String[0];
+        return new String(inflate(terms, termsLength), StandardCharsets.UTF_8).split(" ");
+    }
+
+    //para o IndexSegment gravar sem voltar a comprimir
+    byte[] titleBytes() { return title; }
+    byte[] bodyBytes() { return body; }
+    int textLength() { return textLength; }
+    byte[] termsBytes() { return terms; }
+    int termsLength() { return termsLength; }
+
+    //janela de texto com mais termos diferentes da query; sem nenhum, o início do texto
+    //os termos vêm do mesmo Tokenizer do índice, por isso "Cães" no texto bate com "caes" na query
+    public String snippet(Set<String> terms, Tokenizer tokenizer) {
+        String text = text();
+        if (text.isEmpty()) return "";
+        List<int[]> hits = new ArrayList<>();//[início, fim, índice do termo]
+        List<String> order = new ArrayList<>(terms);
+        tokenizer.tokenize(text, (term, start, end) -> {
+            int t = order.indexOf(term);
+            if (t >= 0) hits.add(new int[] { start, end, t });
+        });
+        int from = 0;
+        if (!hits.isEmpty()) {
+            int bestCount = -1;
+            for (int i = 0; i < hits.size(); i++) {
+                Set<Integer> covered = new HashSet<>();
+                for (int j = i; j < hits.size() && hits.get(j)[1] - hits.get(i)[0] <= SNIPPET_CHARS; j++) covered.add(hits.get(j)[2]);
+                if (covered.size() > bestCount) {
+                    bestCount = covered.size();
+                    from = hits.get(i)[0];
+                }
+            }
+            //um pouco de contexto antes do primeiro termo, a começar numa palavra inteira
+            from = Math.max(0, from - SNIPPET_CHARS / 4);
+            while (from > 0 && Character.isLetterOrDigit(text.charAt(from - 1))) from--;
+        }
+        int to = Math.min(text.length(), from + SNIPPET_CHARS);
+        while (to < text.length() && Character.isLetterOrDigit(text.charAt(to))) to++;
+        return (from > 0 ? "..." : "") + text.substring(from, to).strip() + (to < text.length() ? "..." : "");
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        if (raw.length == 0) return raw;
+        Deflater d = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            d.setInput(raw);
+            d.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+            byte[] buf = new byte[1024];
+            while (!d.finished()) out.write(buf, 0, d.deflate(buf));
+            return out.toByteArray();
+        } finally {
+            d.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] body, int length) {
+        if (length == 0) return new byte[0];
+        Inflater inf = new Inflater(true);
+        try {
+            inf.setInput(body);
+            byte[] out = new byte[length];
+            int n = 0;
+            while (n < length && !inf.finished()) {
+                int r = inf.inflate(out, n, length - n);
+                if (r == 0 && (inf.needsInput() || inf.needsDictionary())) break;
+                n += r;
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("corrupted stored page", e);
+        } finally {
+            inf.end();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package googol.downloader;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+//pares (chave, docId) que já não valem mas ainda estão nas postings (um termo que saiu da página num re-crawl,
+//um link que deixou de existir): tirá-los logo obrigava a copiar a lista toda, que nos termos frequentes
+//tem milhões de docIds, por isso ficam aqui, as leituras saltam-nos e o InvertedIndex.compact() tira-os
+//das listas em lote (uma cópia por lista)
+final class Tombstones<K> {
+    private static final int[] NONE = new int[0];
+
+    private final ConcurrentHashMap<K, int[]> dead = new ConcurrentHashMap<>();//docIds ordenados
+    private final AtomicInteger count = new AtomicInteger();
+
+    //os docIds de um lote (ordenados, sem repetidos) de uma vez: um merge por chave e não um por par
+    void addAll(K key, int[] sortedIds) {
+        if (sortedIds.length == 0) return;
+        dead.compute(key, (k, ids) -> {
+            if (ids == null) ids = NONE;
+            int[] merged = new int[ids.length + sortedIds.length];
+            int i = 0, j = 0, n = 0;
+            while (i < ids.length || j < sortedIds.length) {
+                if (j == sortedIds.length || (i < ids.length && ids[i] < sortedIds[j])) merged[n++] = ids[i++];
+                else if (i == ids.length || sortedIds[j] < ids[i]) merged[n++] = sortedIds[j++];
+                else {
+                    merged[n++] = ids[i++];
+                    j++;
+                }
+            }
+            count.addAndGet(n - ids.length);
+            return (n == merged.length) ? merged : Arrays.copyOf(merged, n);
+        });
+    }
+
+    //o par voltou a ser indexado (a palavra ou o link reapareceu antes da compactação)
+    void revive(K key, int[] sortedIds) {
+        if (!dead.containsKey(key)) return;
+        dead.computeIfPresent(key, (k, ids) -> {
+            int[] kept = new int[ids.length];
+            int n = 0;
+            for (int d : ids) if (Arrays.binarySearch(sortedIds, d) < 0) kept[n++] = d;
+            count.addAndGet(n - ids.length);
+            return (n == 0) ? null : Arrays.copyOf(kept, n);
+        });
+    }
+
+    //docIds mortos desta chave (ordenados), ou null
+    int[] get(K key) {
+        return dead.get(key);
+    }
+
+    static boolean contains(int[] dead, int docId) {
+        return dead != null && Arrays.binarySearch(dead, docId) >= 0;
+    }
+
+    int count(K key) {
+        int[] ids = dead.get(key);
+        return (ids == null) ? 0 : ids.length;
+    }
+
+    int size() {
+        return count.get();
+    }
+
+    //passa cada chave a apply (sob o lock dessa chave, por isso um revive à mesma hora espera) e esquece-a
+    int drain(BiConsumer<K, int[]> apply) {
+        int[] drained = { 0 };
+        for (K key : dead.keySet()) {
+            dead.computeIfPresent(key, (k, ids) -> {
+                apply.accept(k, ids);
+                count.addAndGet(-ids.length);
+                drained[0] += ids.length;
+                return null;
+            });
+        }
+        return drained[0];
+    }
+
+    void clear() {
+        dead.clear();
+        count.set(0);
+    }
+}
@@ -0,0 +1,91 @@
+package googol.downloader;
+
+//os k melhores hits sem guardar nem ordenar a lista toda: heap mínimo de tamanho k, O(n log k)
+//ordem final: score desc, empate -> docId asc (para as páginas serem estáveis entre pedidos)
+//os docs chegam por ordem crescente de docId, por isso um empate com o pior do heap nunca entra
+//e accepts() diz logo se vale a pena acabar de calcular o score de um doc (ver InvertedIndex.search)
+public final class TopK {
+    private final int k;
+    private final int[] docs;//heap, a raiz é o pior dos k
+    private final double[] scores;
+    private int size;
+
+    public TopK(int k) {
+        this.k = Math.max(0, k);
+        this.docs = new int[this.k];
+        this.scores = new double[this.k];
+    }
+
+    //um doc com score até este valor ainda pode entrar?
+    public boolean accepts(double bound) {
+        return size < k || (k > 0 && bound > scores[0]);
+    }
+
+    public void offer(int doc, double score) {
+        if (size < k) {
+            docs[size] = doc;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (k > 0 && better(doc, score, docs[0], scores[0])) {
+            docs[0] = doc;
+            scores[0] = score;
+            siftDown();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    //docs e scores do melhor para o pior; esvazia o heap
+    public int[] drain(double[] scoresOut) {
+        int n = size;
+        int[] out = new int[n];
+        for (int j = n - 1; j >= 0; j--) {
+            out[j] = docs[0];
+            scoresOut[j] = scores[0];
+            size--;
+            docs[0] = docs[size];
+            scores[0] = scores[size];
+            siftDown();
+        }
+        return out;
+    }
+
+    private static boolean better(int docA, double a, int docB, double b) {
+        if (a != b) return a > b;
+        return docA < docB;
+    }
+
+    private void siftUp(int i) {
+        int d = docs[i];
+        double s = scores[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!better(docs[parent], scores[parent], d, s)) break;
+            docs[i] = docs[parent];
+            scores[i] = scores[parent];
+            i = parent;
+        }
+        docs[i] = d;
+        scores[i] = s;
+    }
+
+    private void siftDown() {
+        if (size == 0) return;
+        int d = docs[0];
+        double s = scores[0];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && better(docs[child], scores[child], docs[child + 1], scores[child + 1])) child++;
+            if (!better(d, s, docs[child], scores[child])) break;
+            docs[i] = docs[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        docs[i] = d;
+        scores[i] = s;
+    }
+}
@@ -0,0 +1,119 @@
+package googol.gateway;
+
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import googol.common.BarrelService;
+
+//um barrel do ponto de vista do gateway: stub, estado de saúde e latência
+//o stub só é trocado pelo health checker (refresh), o caminho das pesquisas nunca faz lookups
+class BarrelEndpoint {
+    private static final double EWMA_ALPHA = 0.2;
+    private static final int WINDOW = 128;//últimas latências para o p95
+
+    final String name;
+    final String host;
+    final int port;
+    final int shard;
+
+    private volatile BarrelService stub;
+    private volatile boolean healthy;
+    private volatile int indexSize = -1;
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    private double ewmaNanos;
+    private final long[] window = new long[WINDOW];
+    private int samples;
+
+    BarrelEndpoint(String name, String host, int port, int shard) {
+        this.name = name;
+        this.host = host;
+        this.port = port;
+        this.shard = shard;
+    }
+
+    BarrelService stub() {
+        return stub;
+    }
+
+    boolean healthy() {
+        return healthy && stub != null;
+    }
+
+    int indexSize() {
+        return indexSize;
+    }
+
+    //lookup no registry; chamado no arranque e pelo health checker
+    boolean refresh() {
+        try {
+            Registry reg = LocateRegistry.getRegistry(host, port);
+            stub = (BarrelService) reg.lookup(name);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    //health check: getIndexSize serve de ping e ainda dá o tamanho para a cache/stats
+    void check() {
+        BarrelService s = stub;
+        if (s == null && !refresh()) {
+            markDown();
+            return;
+        }
+        try {
+            indexSize = stub.getIndexSize();
+            if (!healthy) System.out.println("[Gateway] " + name + " is up (" + indexSize + " pages)");
+            healthy = true;
+        } catch (Exception e) {
+            //stub velho (ex: o barrel reiniciou): tenta um novo já na mesma volta
+            if (refresh()) {
+                try {
+                    indexSize = stub.getIndexSize();
+                    if (!healthy) System.out.println("[Gateway] " + name + " is up (" + indexSize + " pages)");
+                    healthy = true;
+                    return;
+                } catch (Exception ignored) {
+                }
+            }
+            markDown();
+        }
+    }
+
+    //uma chamada falhou: sai do routing até o próximo health check passar
+    void markDown() {
+        if (healthy) System.err.println("[Gateway] " + name + " marked as down");
+        healthy = false;
+    }
+
+    void begin() {
+        outstanding.incrementAndGet();
+    }
+
+    void end() {
+        outstanding.decrementAndGet();
+    }
+
+    synchronized void record(long nanos) {
+        ewmaNanos = (samples == 0) ? nanos : EWMA_ALPHA * nanos + (1 - EWMA_ALPHA) * ewmaNanos;
+        window[samples % WINDOW] = nanos;
+        samples++;
+    }
+
+    //custo esperado de mandar mais um pedido: latência média x pedidos à frente (least-outstanding)
+    synchronized double cost() {
+        return ewmaNanos * (outstanding.get() + 1);
+    }
+
+    //p95 das últimas latências, ou -1 se ainda há poucas amostras
+    synchronized long p95Nanos() {
+        int n = Math.min(samples, WINDOW);
+        if (n < 20) return -1;
+        long[] sorted = Arrays.copyOf(window, n);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(n * 0.95) - 1];
+    }
+}
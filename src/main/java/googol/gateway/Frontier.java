@@ -0,0 +1,216 @@
+package googol.gateway;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+//fila de urls por indexar, com uma fila por host:
+//- cada host só é servido uma vez a cada delayMs (o maior entre o default e o Crawl-delay do robots.txt)
+//- dentro de um host sai primeiro o url com mais incoming links vistos até agora
+//- entre hosts prontos, sai primeiro o host cujo melhor url é mais importante
+//assim um site com muitos links não enche o crawl e os downloaders não batem no mesmo host seguido
+class Frontier {
+    private static final class Entry implements Comparable<Entry> {
+        final String url;
+        final long seq;
+        int inlinks;
+
+        Entry(String url, long seq) {
+            this.url = url;
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            if (inlinks != o.inlinks) return Integer.compare(o.inlinks, inlinks);
+            return Long.compare(seq, o.seq);
+        }
+    }
+
+    private static final class Host {
+        final String name;
+        final TreeSet<Entry> urls = new TreeSet<>();
+        long delayMs;
+        long nextAllowed;
+        boolean scheduled;//está em waiting ou em ready
+        long readySeq = -1;//seq da entrada válida em ready (as outras estão obsoletas)
+        int readyPriority;
+
+        Host(String name, long delayMs) {
+            this.name = name;
+            this.delayMs = delayMs;
+        }
+    }
+
+    //prioridade fixada quando o host entra em ready (o heap não pode ter chaves a mudar);
+    //se sobe, mete-se outra entrada e a antiga é ignorada pelo readySeq
+    private record Ready(Host host, int priority, long seq) {}
+    //host que ficou vazio: só sai do mapa depois do nextAllowed, senão um url novo logo a seguir saltava o delay
+    private record Idle(Host host, long until) {}
+
+    //Crawl-delay de hosts que já não têm nada na fila, para não voltar a pedir o robots.txt (LRU limitado)
+    private static final int DELAY_CACHE_SIZE = 10_000;
+
+    private final long defaultDelayMs;
+    private final RobotsClient robots;//null = não ler robots.txt
+
+    //só hosts com urls na fila ou ainda dentro do delay; os outros saem (ver Idle)
+    private final Map<String, Host> hosts = new HashMap<>();
+    private final PriorityQueue<Idle> idle = new PriorityQueue<>(Comparator.comparingLong(Idle::until));
+    private final Map<String, Long> crawlDelays = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > DELAY_CACHE_SIZE;
+        }
+    };
+    private final Map<String, Entry> queued = new HashMap<>();
+    private final PriorityQueue<Host> waiting = new PriorityQueue<>(Comparator.comparingLong((Host h) -> h.nextAllowed));
+    private final PriorityQueue<Ready> ready = new PriorityQueue<>(
+            Comparator.comparingInt((Ready r) -> -r.priority()).thenComparingLong(Ready::seq));
+    private long seq;
+
+    Frontier(long defaultDelayMs, RobotsClient robots) {
+        this.defaultDelayMs = defaultDelayMs;
+        this.robots = robots;
+    }
+
+    //url já canónico; se já está na fila conta mais um incoming link
+    synchronized void add(String url) {
+        Entry e = queued.get(url);
+        if (e != null) {
+            bump(e);
+            return;
+        }
+        Host h = host(url);
+        e = new Entry(url, seq++);
+        h.urls.add(e);
+        queued.put(url, e);
+        if (!h.scheduled) schedule(h, System.currentTimeMillis());
+    }
+
+    //mais um link para um url que ainda está na fila (os já tirados são ignorados)
+    synchronized void bump(String url) {
+        Entry e = queued.get(url);
+        if (e != null) bump(e);
+    }
+
+    private void bump(Entry e) {
+        Host h = hosts.get(hostOf(e.url));
+        h.urls.remove(e);
+        e.inlinks++;
+        h.urls.add(e);
+        if (h.readySeq >= 0 && h.urls.first().inlinks > h.readyPriority) markReady(h);
+    }
+
+    synchronized String poll() {
+        List<String> one = poll(1);
+        return one.isEmpty() ? null : one.get(0);
+    }
+
+    //no máximo um url por host pronto; pode devolver menos do que max se poucos hosts estiverem prontos
+    synchronized List<String> poll(int max) {
+        long now = System.currentTimeMillis();
+        while (!waiting.isEmpty() && waiting.peek().nextAllowed <= now) {
+            markReady(waiting.poll());
+        }
+        while (!idle.isEmpty() && idle.peek().until() <= now) {
+            Host h = idle.poll().host();
+            //entretanto pode ter recebido urls (ou ser uma entrada antiga de um host que já saiu)
+            if (h.urls.isEmpty() && !h.scheduled && hosts.get(h.name) == h) hosts.remove(h.name);
+        }
+        List<String> out = new ArrayList<>(Math.min(max, ready.size()));
+        List<Host> served = new ArrayList<>();
+        while (out.size() < max && !ready.isEmpty()) {
+            Ready r = ready.poll();
+            Host h = r.host();
+            if (r.seq() != h.readySeq) continue;//entrada obsoleta
+            h.readySeq = -1;
+            Entry e = h.urls.pollFirst();
+            queued.remove(e.url);
+            out.add(e.url);
+            h.nextAllowed = now + h.delayMs;
+            h.scheduled = false;
+            served.add(h);
+        }
+        //só se voltam a agendar no fim, para o mesmo host não sair duas vezes no mesmo lote
+        for (Host h : served) {
+            if (!h.urls.isEmpty()) schedule(h, now);
+            else idle.add(new Idle(h, h.nextAllowed));
+        }
+        return out;
+    }
+
+    //tira tudo, ignorando os delays (para passar para disco no shutdown)
+    synchronized List<String> drain() {
+        List<String> out = new ArrayList<>(queued.keySet());
+        queued.clear();
+        hosts.clear();
+        idle.clear();
+        waiting.clear();
+        ready.clear();
+        return out;
+    }
+
+    synchronized int size() {
+        return queued.size();
+    }
+
+    synchronized int hostCount() {
+        return hosts.size();
+    }
+
+    synchronized void setCrawlDelay(String host, long delayMs) {
+        long d = Math.max(defaultDelayMs, delayMs);
+        crawlDelays.put(host, d);
+        Host h = hosts.get(host);
+        if (h != null) h.delayMs = d;
+    }
+
+    private void schedule(Host h, long now) {
+        h.scheduled = true;
+        if (h.nextAllowed <= now) markReady(h);
+        else waiting.add(h);
+    }
+
+    private void markReady(Host h) {
+        h.readyPriority = h.urls.first().inlinks;
+        h.readySeq = seq++;
+        ready.add(new Ready(h, h.readyPriority, h.readySeq));
+    }
+
+    private Host host(String url) {
+        String name = hostOf(url);
+        Host h = hosts.get(name);
+        if (h == null) {
+            Long known = crawlDelays.get(name);
+            h = new Host(name, (known == null) ? defaultDelayMs : known);
+            hosts.put(name, h);
+            if (known != null) return h;//robots.txt já lido
+            crawlDelays.put(name, defaultDelayMs);
+            if (robots != null && !name.isEmpty()) {
+                String scheme = url.substring(0, url.indexOf(':'));
+                robots.fetchCrawlDelay(scheme, name, ms -> {
+                    setCrawlDelay(name, ms);
+                    System.out.println("[Frontier] " + name + " asks for Crawl-delay " + ms + "ms");
+                });
+            }
+        }
+        return h;
+    }
+
+    //host:port, os urls já vêm canónicos
+    static String hostOf(String url) {
+        try {
+            String authority = URI.create(url).getRawAuthority();
+            return (authority == null) ? "" : authority;
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package googol.gateway;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+//overflow da frontier em disco: segmentos append-only com um url por linha (spill-<n>.txt)
+//lê-se do segmento mais antigo para a frente; o ficheiro "cursor" guarda até onde já se leu,
+//por isso o que está em disco sobrevive a um restart do gateway
+class FrontierSpill {
+    private static final int URLS_PER_SEGMENT = 100_000;
+
+    private final Path dir;
+    private long writeSeg;
+    private BufferedWriter writer;
+    private int writeCount;
+    private long readSeg;
+    private long readOffset;
+    private long pending;//urls escritos e ainda não lidos
+
+    FrontierSpill(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        List<Long> segs = segments();
+        readCursor();
+        if (!segs.isEmpty() && readSeg < segs.get(0)) {
+            readSeg = segs.get(0);
+            readOffset = 0;
+        }
+        for (long s : segs) {
+            if (s >= readSeg) pending += countLines(s, s == readSeg ? readOffset : 0);
+        }
+        //escreve-se sempre num segmento novo: o último pode ter uma linha cortada
+        writeSeg = segs.isEmpty() ? Math.max(1, readSeg) : segs.get(segs.size() - 1) + 1;
+        if (segs.isEmpty()) {
+            readSeg = writeSeg;
+            readOffset = 0;
+        }
+        openWriter();
+    }
+
+    synchronized void append(String url) throws IOException {
+        if (writeCount >= URLS_PER_SEGMENT) {
+            writer.close();
+            writeSeg++;
+            openWriter();
+        }
+        writer.write(url);
+        writer.write('\n');
+        writeCount++;
+        pending++;
+    }
+
+    synchronized long size() {
+        return pending;
+    }
+
+    synchronized void flush() throws IOException {
+        writer.flush();
+    }
+
+    //até max urls, pela ordem em que foram escritos
+    synchronized List<String> read(int max) throws IOException {
+        List<String> out = new ArrayList<>();
+        if (pending == 0) return out;
+        writer.flush();
+        while (out.size() < max && readSeg <= writeSeg) {
+            Path file = path(readSeg);
+            if (Files.exists(file)) {
+                try (InputStream in = new BufferedInputStream(new FileInputStream(file.toFile()))) {
+                    in.skipNBytes(readOffset);
+                    ByteArrayOutputStream line = new ByteArrayOutputStream();
+                    int b;
+                    while (out.size() < max && (b = in.read()) != -1) {
+                        if (b != '\n') {
+                            line.write(b);
+                            continue;
+                        }
+                        readOffset += line.size() + 1;
+                        if (line.size() > 0) out.add(line.toString(StandardCharsets.UTF_8));
+                        line.reset();
+                    }
+                }
+                if (out.size() >= max || readSeg == writeSeg) break;
+                Files.deleteIfExists(file);//segmento antigo lido até ao fim
+            }
+            readSeg++;
+            readOffset = 0;
+        }
+        pending = Math.max(0, pending - out.size());
+        writeCursor();
+        return out;
+    }
+
+    synchronized void close() throws IOException {
+        writer.close();
+        writeCursor();
+    }
+
+    private void openWriter() throws IOException {
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path(writeSeg).toFile(), true), StandardCharsets.UTF_8));
+        writeCount = 0;
+    }
+
+    private Path path(long seg) {
+        return dir.resolve(String.format("spill-%012d.txt", seg));
+    }
+
+    private List<Long> segments() throws IOException {
+        List<Long> result = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString())
+                 .filter(n -> n.startsWith("spill-") && n.endsWith(".txt"))
+                 .forEach(n -> result.add(Long.parseLong(n.substring(6, n.length() - 4))));
+        }
+        result.sort(null);
+        return result;
+    }
+
+    private long countLines(long seg, long from) throws IOException {
+        long n = 0;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(path(seg).toFile()))) {
+            in.skipNBytes(from);
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b == '\n') n++;
+            }
+        }
+        return n;
+    }
+
+    private void readCursor() {
+        try {
+            String[] parts = Files.readString(dir.resolve("cursor")).trim().split(" ");
+            readSeg = Long.parseLong(parts[0]);
+            readOffset = Long.parseLong(parts[1]);
+        } catch (Exception e) {
+            readSeg = 0;
+            readOffset = 0;
+        }
+    }
+
+    private void writeCursor() throws IOException {
+        Path tmp = dir.resolve("cursor.tmp");
+        Files.writeString(tmp, readSeg + " " + readOffset);
+        Files.move(tmp, dir.resolve("cursor"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -1,54 +1,141 @@
 package googol.gateway;
 
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.rmi.Naming;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import googol.common.BarrelService;
 import googol.common.ClientCallback;
 import googol.common.GatewayService;
+import googol.common.Shards;
+import googol.common.UrlCanonicalizer;
 import googol.common.dto.SearchResult;
 
 
 public class Gateway extends UnicastRemoteObject implements GatewayService {
 
-    private final List<BarrelService> barrels = new ArrayList<>();
-    private final List<String> barrelNames = new ArrayList<>();
-    private final List<String> barrelHosts = new ArrayList<>();
-    private final List<Integer> barrelPorts = new ArrayList<>();
+    private final List<BarrelEndpoint> barrels = new ArrayList<>();
+    //modo sharded (shard.count > 1): cada barrel tem só um pedaço dos urls e os barrels do mesmo shard são réplicas
+    private int shardCount = 1;
+    //routing: o barrel com menor latência x pedidos em curso; se não responder até ao seu p95 manda-se também ao seguinte
+    private boolean hedging;
+    private long hedgeDefaultNanos;
+    private long hedgeMinNanos;
+    private long requestTimeoutNanos;
+    private final AtomicInteger roundRobin = new AtomicInteger();//desempate entre barrels sem medições
+    private final ExecutorService fanout = Executors.newVirtualThreadPerTaskExecutor();
+    private static final int PAGE_SIZE = 10;//tem de ser igual ao do barrel
 
-    private int maxQueueSize;
-    private int maxRetries;
-    private final Queue<String> urlsToIndex = new ConcurrentLinkedQueue<>();
-    
-    // Round-robin counter
-    private int nextBarrelIndex = 0;
+    private static final int MAX_BATCH = 1000;
+
+    private int maxQueueSize;//urls em memória; o resto vai para o spill em disco
+    //fila de urls por indexar, por host e com prioridade
+    private Frontier urlsToIndex;
+    private FrontierSpill spill;
+    private final AtomicBoolean refillPending = new AtomicBoolean();//já há um refill na fila do scheduler
     
     //stats tracking
     private final List<ClientCallback> registeredClients = new CopyOnWriteArrayList<>();
-    private final Map<String, Long> searchCounters = new ConcurrentHashMap<>();
+    private final TopQueries topQueries;
     private final Map<String, Long> barrelTotalTime = new ConcurrentHashMap<>();
     private final Map<String, Long> barrelSearchCount = new ConcurrentHashMap<>();
-    private String[][] currentTop10 = new String[0][0];
+    //as stats saem do caminho das pesquisas: um publisher junta as mudanças e manda no máximo uma vez por intervalo
+    private volatile StatsSnapshot latestStats = new StatsSnapshot(0, new String[0][0], Map.of(), Map.of(), Map.of());
+    private long publishedTopVersion = -1;//TopQueries.version() do último publish (só a thread do scheduler mexe)
+    private final Map<ClientCallback, Delivery> deliveries = new ConcurrentHashMap<>();
+    private long clientTimeoutMs;
+
+    private record StatsSnapshot(long generation, String[][] top10, Map<String, Integer> barrelStatus,
+                                 Map<String, Double> responseTimes, Map<String, Long> cacheStats) {}
+    //último envio a um cliente: que geração levou e se ainda está a decorrer
+    private record Delivery(long generation, long startedAt, Future<?> task) {}
+
+    //cache de pesquisas, invalidada quando o getIndexSize de algum barrel muda (visto pelo health check)
+    private final QueryCache queryCache;
+    private volatile Map<String, Integer> lastIndexSizes = Map.of();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "gateway-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+    //health checks à parte: esperam até request.timeoutMs por barrels pendurados e não podem atrasar
+    //o publish das stats, o refill da frontier e o recrawl, que estão no scheduler
+    private final ScheduledExecutorService healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "gateway-health");
+        t.setDaemon(true);
+        return t;
+    });
+
+    //urls que já passaram pela fila nesta janela de recrawl
+    private final SeenUrls seenUrls;
+    //quando voltar a cada url já descarregado (intervalo adaptativo pelo hash do conteúdo)
+    private final RecrawlScheduler recrawl;
+    private final double recrawlShare;//parte do espaço livre da fila para recrawls quando há urls novos no spill
 
     public Gateway(Properties cfg) throws Exception {
+        seenUrls = new SeenUrls(
+                Integer.parseInt(cfg.getProperty("frontier.seen.initialCapacity", "1000000")),
+                Double.parseDouble(cfg.getProperty("frontier.seen.fpr", "0.01")),
+                Integer.parseInt(cfg.getProperty("frontier.seen.recentSize", "100000")));
+        long recrawlWindowMs = Long.parseLong(cfg.getProperty("frontier.recrawlWindowMs", "86400000"));
+        urlsToIndex = new Frontier(
+                Long.parseLong(cfg.getProperty("frontier.hostDelayMs", "1000")),
+                Boolean.parseBoolean(cfg.getProperty("frontier.robots", "true")) ? new RobotsClient() : null);
+        maxQueueSize = Integer.parseInt(cfg.getProperty("queue.maxSize", "100000"));
+        spill = new FrontierSpill(Path.of(cfg.getProperty("frontier.spillDir", "gateway_frontier")));
+        if (spill.size() > 0) System.out.println("[Gateway] " + spill.size() + " URLs waiting in the frontier spill");
+        recrawl = new RecrawlScheduler(
+                Long.parseLong(cfg.getProperty("recrawl.initialIntervalMs", "86400000")),
+                Long.parseLong(cfg.getProperty("recrawl.minIntervalMs", "3600000")),
+                Long.parseLong(cfg.getProperty("recrawl.maxIntervalMs", "2592000000")),
+                Double.parseDouble(cfg.getProperty("recrawl.changedFactor", "0.5")),
+                Double.parseDouble(cfg.getProperty("recrawl.unchangedFactor", "1.5")),
+                Integer.parseInt(cfg.getProperty("recrawl.maxUrls", "1000000")),
+                Path.of(cfg.getProperty("frontier.spillDir", "gateway_frontier"), "recrawl.dat"));
+        long recrawlCheckMs = Long.parseLong(cfg.getProperty("recrawl.checkMs", "10000"));
+        long recrawlSaveMs = Long.parseLong(cfg.getProperty("recrawl.saveMs", "300000"));
+        recrawlShare = Double.parseDouble(cfg.getProperty("recrawl.queueShare", "0.25"));
+        queryCache = new QueryCache(
+                Integer.parseInt(cfg.getProperty("cache.maxEntries", "1000")),
+                Long.parseLong(cfg.getProperty("cache.ttlMs", "30000")));
+        topQueries = new TopQueries(Integer.parseInt(cfg.getProperty("stats.topCapacity", "1000")));
+        long publishMs = Long.parseLong(cfg.getProperty("stats.publishMs", "1000"));
+        clientTimeoutMs = Long.parseLong(cfg.getProperty("stats.clientTimeoutMs", "2000"));
+        long healthCheckMs = Long.parseLong(cfg.getProperty("barrel.healthCheckMs", "2000"));
+        hedging = Boolean.parseBoolean(cfg.getProperty("hedge.enabled", "true"));
+        hedgeDefaultNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(cfg.getProperty("hedge.defaultDelayMs", "100")));
+        hedgeMinNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(cfg.getProperty("hedge.minDelayMs", "10")));
+        requestTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(cfg.getProperty("request.timeoutMs", "10000")));
         try {
-            maxQueueSize = Integer.parseInt(cfg.getProperty("queue.maxSize"));
-            maxRetries = Integer.parseInt(cfg.getProperty("max.retries", "3"));
+            shardCount = Integer.parseInt(cfg.getProperty("shard.count", "1"));
 
-            int i = 1; int added = 0;
+            int i = 1;
             while (true) {
                 String prefix = "barrel" + i + ".";
                 String name = cfg.getProperty(prefix + "name");
@@ -56,26 +143,138 @@ public class Gateway extends UnicastRemoteObject implements GatewayService {
                 String portStr = cfg.getProperty(prefix + "port");
                 if (name == null || host == null || portStr == null) break;
 
-                int port = Integer.parseInt(portStr);
-                try {
-                    Registry reg = LocateRegistry.getRegistry(host, port);
-                    BarrelService barrelProxy = (BarrelService) reg.lookup(name);
-                    barrels.add(barrelProxy);
-                    barrelNames.add(name);
-                    barrelHosts.add(host);
-                    barrelPorts.add(port);
-                    System.out.println("Connected to " + name + ":" + port);
-                    added++;
-                } catch (Exception e) {
-                    System.err.println("Failed to connect to " + name + ": " + e.getMessage());
-                }
+                //os que não respondem agora ficam na lista: o health checker liga-se quando eles arrancarem
+                BarrelEndpoint b = new BarrelEndpoint(name, host, Integer.parseInt(portStr),
+                        Integer.parseInt(cfg.getProperty(prefix + "shard", "0")));
+                barrels.add(b);
+                b.check();
+                if (b.healthy()) System.out.println("Connected to " + name + ":" + b.port);
+                else System.err.println("Failed to connect to " + name + ", will keep retrying in the background");
                 i++;
             }
-            if (added == 0) System.err.println("No barrels configured or connected.");
+            if (barrels.isEmpty()) System.err.println("No barrels configured.");
+            if (shardCount > 1) {
+                for (int s = 0; s < shardCount; s++) {
+                    int shard = s;
+                    if (barrels.stream().noneMatch(b -> b.shard == shard)) System.err.println("[Gateway] No barrel configured for shard " + s);
+                }
+                System.out.println("[Gateway] Sharded mode: " + shardCount + " shards");
+            }
         } catch (Exception e) {
             System.err.println("Gateway init issue: " + e.getMessage());
         }
-    }    
+        healthChecker.scheduleWithFixedDelay(this::checkBarrels, healthCheckMs, healthCheckMs, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::publishStats, publishMs, publishMs, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(() -> {
+            logSeenStats();
+            seenUrls.rotate();
+        }, recrawlWindowMs, recrawlWindowMs, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(this::logSeenStats, 60, 60, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(this::refillFrontier, 0, 500, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::enqueueRecrawls, recrawlCheckMs, recrawlCheckMs, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::saveRecrawl, recrawlSaveMs, recrawlSaveMs, TimeUnit.MILLISECONDS);
+    }
+
+    //urls cuja vez de recrawl chegou: entram direto na fila (já estão no seenUrls), só até a frontier em memória encher
+    //com urls novos à espera no spill ficam só com recrawlShare do espaço livre, para nenhum dos dois parar o outro
+    private void enqueueRecrawls() {
+        int room = maxQueueSize - urlsToIndex.size();
+        int budget = (spill.size() > 0) ? (int) Math.ceil(room * recrawlShare) : room;
+        if (budget <= 0) return;
+        List<String> due = recrawl.due(System.currentTimeMillis(), budget);
+        for (String u : due) urlsToIndex.add(u);
+        if (!due.isEmpty()) System.out.println("[Gateway] Recrawl: " + due.size() + " URLs due");
+    }
+
+    private void saveRecrawl() {
+        try {
+            recrawl.save();
+        } catch (IOException e) {
+            System.err.println("[Gateway] Failed to save recrawl schedule: " + e.getMessage());
+        }
+    }
+
+    //memória cheia -> disco
+    private void enqueue(String u) {
+        if (urlsToIndex.size() < maxQueueSize && spill.size() == 0) {
+            urlsToIndex.add(u);
+            return;
+        }
+        try {
+            spill.append(u);
+        } catch (IOException e) {
+            System.err.println("[Gateway] Failed to spill URL, keeping in memory: " + e.getMessage());
+            urlsToIndex.add(u);
+        }
+    }
+
+    //pedido de refill vindo dos takeNext: no máximo um à espera no scheduler
+    private void requestRefill() {
+        if (urlsToIndex.size() < maxQueueSize / 2 && refillPending.compareAndSet(false, true)) {
+            scheduler.execute(this::refillFrontier);
+        }
+    }
+
+    //quando a frontier em memória desce abaixo de metade, traz urls do disco (só na thread do scheduler)
+    private void refillFrontier() {
+        refillPending.set(false);
+        try {
+            spill.flush();
+            int room = maxQueueSize - urlsToIndex.size();
+            if (room < maxQueueSize / 2 || spill.size() == 0) return;
+            for (String u : spill.read(room)) {
+                seenUrls.mark(u);//depois de um restart o filtro está vazio
+                urlsToIndex.add(u);
+            }
+        } catch (IOException e) {
+            System.err.println("[Gateway] Frontier refill failed: " + e.getMessage());
+        }
+    }
+
+    //shutdown: o que está em memória passa para o spill, para o próximo arranque continuar daqui
+    private void saveFrontier() {
+        try {
+            List<String> rest = urlsToIndex.drain();
+            for (String u : rest) spill.append(u);
+            spill.close();
+            System.out.println("[Gateway] Saved " + rest.size() + " queued URLs to the frontier spill");
+        } catch (IOException e) {
+            System.err.println("[Gateway] Failed to save frontier: " + e.getMessage());
+        }
+        saveRecrawl();
+    }
+
+    private void logSeenStats() {
+        Map<String, Double> st = seenUrls.stats();
+        System.out.printf("[Gateway] Seen URLs: %.0f in %.0f bloom filters (%.1f KB) + %.0f recent, estimated false positive rate %.4f%%%n",
+                st.get("urls"), st.get("filters"), st.get("bloomBytes") / 1024, st.get("recent"), st.get("fpr") * 100);
+        System.out.println("[Gateway] Frontier: " + urlsToIndex.size() + " URLs in memory across " + urlsToIndex.hostCount() + " hosts, " + spill.size() + " spilled to disk");
+        Map<String, Double> rc = recrawl.stats();
+        System.out.printf("[Gateway] Recrawl: %.0f URLs tracked, avg interval %.1fh; last minute %.0f changed, %.0f unchanged, %.0f re-queued, %.0f evicted%n",
+                rc.get("urls"), rc.get("avgIntervalMs") / 3_600_000, rc.get("changed"), rc.get("unchanged"), rc.get("issued"), rc.get("evicted"));
+    }
+
+    //health check em paralelo (um barrel pendurado não atrasa os outros); refresca os stubs
+    //e, se algum barrel indexou paginas novas, os resultados em cache podem estar errados
+    private void checkBarrels() {
+        List<Future<?>> checks = new ArrayList<>();
+        for (BarrelEndpoint b : barrels) checks.add(fanout.submit(b::check));
+        for (Future<?> f : checks) {
+            try {
+                f.get(requestTimeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (Exception e) {
+                //fica com o estado anterior até à próxima volta
+            }
+        }
+        Map<String, Integer> sizes = new HashMap<>();
+        for (BarrelEndpoint b : barrels) {
+            if (b.healthy()) sizes.put(b.name, b.indexSize());
+        }
+        if (!sizes.equals(lastIndexSizes)) {
+            lastIndexSizes = sizes;
+            queryCache.invalidateAll();
+        }
+    }
 
     //client -> gateway: search;  gateway -> barrel: search
     @Override
@@ -95,112 +294,219 @@ public class Gateway extends UnicastRemoteObject implements GatewayService {
 
         // Track search query
         String query = String.join(" ", clean);
-        searchCounters.merge(query, 1L, Long::sum);
-
-        int n = barrels.size();
-        if (n == 0) throw new RemoteException("No barrels available");
-        
-        boolean searched = false;
-        int attempts = 0;
-        int maxAttempts = n * maxRetries;
-        int startIndex = nextBarrelIndex;
-        
-        while (!searched && attempts < maxAttempts) {
-            int i = (startIndex + attempts) % n;
-            BarrelService barrelProxy = barrels.get(i);
-            String bName = barrelNames.get(i);
-            
-            long startTime = System.nanoTime();
+        topQueries.add(query);
+
+        String cacheKey = QueryCache.key(clean, page);
+        SearchResult[] cached = queryCache.get(cacheKey);
+        if (cached != null) return cached;
+
+        if (shardCount > 1) return searchSharded(clean, page, cacheKey);
+
+        int p = page;
+        SearchResult[] results = call(barrels, b -> b.searchWord(clean, p), "searchWord()");
+        queryCache.put(cacheKey, results);
+        return results;
+    }
+
+    //modo sharded: cada shard devolve o seu top-k (k = até ao fim da página pedida), em paralelo,
+    //e aqui junta-se por score; um shard em baixo dá resultados parciais (que não vão para a cache)
+    private SearchResult[] searchSharded(String[] terms, int page, String cacheKey) throws RemoteException {
+        int k = page * PAGE_SIZE;
+        List<Future<SearchResult[]>> parts = new ArrayList<>();
+        for (int s = 0; s < shardCount; s++) {
+            int shard = s;
+            parts.add(fanout.submit(() -> callShard(shard, b -> b.searchTop(terms, k))));
+        }
+        List<SearchResult> merged = new ArrayList<>();
+        int total = 0;
+        int failed = 0;
+        for (int s = 0; s < shardCount; s++) {
             try {
-                SearchResult[] results = barrelProxy.searchWord(clean, page);
-                long elapsed = System.nanoTime() - startTime;
-                
-                // Track stats and update top 10
-                trackBarrelStats(bName, elapsed);
-                
-                // Update round-robin counter for next request
-                nextBarrelIndex = (i + 1) % n;
-                
-                return results;
-            } catch (RemoteException e) {
-                System.err.println("search failed on " + bName + ": " + e.getMessage());
-                
+                SearchResult[] r = parts.get(s).get();
+                merged.addAll(Arrays.asList(r));
+                if (r.length > 0) total += r[0].totalResults;
+            } catch (ExecutionException e) {
+                System.err.println("[Gateway] Shard " + s + " failed: " + e.getCause().getMessage());
+                failed++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Interrupted while searching shards");
+            }
+        }
+        if (failed == shardCount) throw new RemoteException("All shards failed for searchWord()");
+
+        merged.sort(Comparator.comparingDouble((SearchResult r) -> r.score).reversed()
+                              .thenComparing(r -> r.url));
+        int from = (page - 1) * PAGE_SIZE;
+        int to = Math.min(merged.size(), from + PAGE_SIZE);
+        SearchResult[] results = (from >= to) ? new SearchResult[0] : merged.subList(from, to).toArray(SearchResult[]::new);
+        for (SearchResult r : results) r.totalResults = total;
+        if (failed == 0) queryCache.put(cacheKey, results);
+        return results;
+    }
+
+    private interface BarrelCall<T> {
+        T call(BarrelService barrel) throws RemoteException;
+    }
+
+    private <T> T callShard(int shard, BarrelCall<T> op) throws RemoteException {
+        List<BarrelEndpoint> replicas = new ArrayList<>();
+        for (BarrelEndpoint b : barrels) {
+            if (b.shard == shard) replicas.add(b);
+        }
+        return call(replicas, op, "shard " + shard);
+    }
+
+    //manda ao melhor candidato; se não responder até ao p95 dele manda também ao segundo (hedge) e fica com a
+    //primeira resposta; se um falha passa logo ao seguinte. Só para leituras (repetir não tem efeitos)
+    private <T> T call(List<BarrelEndpoint> group, BarrelCall<T> op, String what) throws RemoteException {
+        List<BarrelEndpoint> order = route(group);
+        if (order.isEmpty()) throw new RemoteException("No barrels available for " + what);
+        CompletionService<T> done = new ExecutorCompletionService<>(fanout);
+        List<Future<T>> running = new ArrayList<>();
+        long deadline = System.nanoTime() + requestTimeoutNanos;
+        running.add(done.submit(attempt(order.get(0), op)));
+        int next = 1;
+        int pending = 1;
+        boolean hedged = !hedging;
+        Exception last = null;
+        try {
+            while (pending > 0) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) break;
+                boolean canHedge = !hedged && next < order.size();
+                long wait = canHedge ? Math.min(left, hedgeDelay(order.get(0))) : left;
+                Future<T> f = done.poll(wait, TimeUnit.NANOSECONDS);
+                if (f == null) {
+                    if (canHedge) {
+                        hedged = true;
+                        running.add(done.submit(attempt(order.get(next++), op)));
+                        pending++;
+                    }
+                    continue;
+                }
+                pending--;
                 try {
-                    Registry reg = LocateRegistry.getRegistry(barrelHosts.get(i), barrelPorts.get(i));
-                    BarrelService newBarrelProxy = (BarrelService) reg.lookup(bName);
-                    barrels.set(i, newBarrelProxy);
-                    System.out.println("[Gateway] Reconnected to " + bName);
-                    
-                    startTime = System.nanoTime();
-                    SearchResult[] results = newBarrelProxy.searchWord(clean, page);
-                    long elapsed = System.nanoTime() - startTime;
-                    
-                    trackBarrelStats(bName, elapsed);
-                    
-                    // Update round-robin counter for next request
-                    nextBarrelIndex = (i + 1) % n;
-                    
-                    return results;
-                } catch (Exception e2) {
-                    System.out.println("Reconnect failed for " + bName + ": " + e2.getMessage());
+                    return f.get();
+                } catch (ExecutionException e) {
+                    last = (Exception) e.getCause();
+                    if (next < order.size()) {
+                        running.add(done.submit(attempt(order.get(next++), op)));
+                        pending++;
+                    }
                 }
             }
-            attempts++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            //o RMI não pára a chamada que perdeu, mas o resultado é ignorado
+            running.forEach(f -> f.cancel(true));
         }
-        throw new RemoteException("All barrels failed for searchWord()");
+        if (pending > 0) throw new RemoteException("Timed out waiting for barrels for " + what);
+        throw new RemoteException("All barrels failed for " + what, last);
     }
 
-    //client ->gateway: incoming links; gateway ->barrel: incoming links
-    @Override
-    public String[] getIncomingLinks(String url) throws RemoteException {
-        if (url == null || url.isBlank()) return new String[0];
-        
-        int n = barrels.size();
-        if (n == 0) throw new RemoteException("No barrels available");
-        
-        boolean searched = false;
-        int attempts = 0;
-        int maxAttempts = n * maxRetries;
-        
-        while (!searched && attempts < maxAttempts) {
-            int i = attempts % n;
-            BarrelService barrelProxy = barrels.get(i);
-            String bName = barrelNames.get(i);
-            
+    private <T> Callable<T> attempt(BarrelEndpoint b, BarrelCall<T> op) {
+        return () -> {
+            BarrelService stub = b.stub();
+            if (stub == null) throw new RemoteException(b.name + " not connected");
+            b.begin();
+            long start = System.nanoTime();
             try {
-                return barrelProxy.getIncomingLinks(url);
+                T result = op.call(stub);
+                long elapsed = System.nanoTime() - start;
+                b.record(elapsed);
+                trackBarrelStats(b.name, elapsed);
+                return result;
             } catch (RemoteException e) {
-                System.err.println("incoming-links failed on " + bName + ": " + e.getMessage());
-                try {
-                    Registry reg = LocateRegistry.getRegistry(barrelHosts.get(i), barrelPorts.get(i));
-                    BarrelService newBarrelProxy = (BarrelService) reg.lookup(bName);
-                    barrels.set(i, newBarrelProxy);
-                    System.out.println("[Gateway] Reconnected to " + bName);
-                    return newBarrelProxy.getIncomingLinks(url);
-                } catch (Exception e1) {
-                    System.out.println("Reconnect failed for " + bName + ": " + e1.getMessage());
-                }
+                System.err.println("[Gateway] Call failed on " + b.name + ": " + e.getMessage());
+                b.markDown();
+                throw e;
+            } finally {
+                b.end();
             }
-            attempts++;
-        }
-        throw new RemoteException("All barrels failed for getIncomingLinks()");
+        };
+    }
+
+    //os vivos primeiro, por custo (EWMA x pedidos em curso); a rotação só serve para desempatar
+    private List<BarrelEndpoint> route(List<BarrelEndpoint> group) {
+        List<BarrelEndpoint> order = new ArrayList<>(group);
+        if (order.isEmpty()) return order;
+        Collections.rotate(order, Math.floorMod(roundRobin.getAndIncrement(), order.size()));
+        order.sort(Comparator.comparing((BarrelEndpoint b) -> !b.healthy()).thenComparingDouble(BarrelEndpoint::cost));
+        return order;
+    }
+
+    private long hedgeDelay(BarrelEndpoint b) {
+        long p95 = b.p95Nanos();
+        return Math.max(hedgeMinNanos, (p95 < 0) ? hedgeDefaultNanos : p95);
+    }
+
+    //client ->gateway: incoming links; gateway ->barrel: incoming links
+    @Override
+    public String[] getIncomingLinks(String url) throws RemoteException {
+        //os barrels guardam as ligações pelo url canónico
+        String u = UrlCanonicalizer.canonicalize(url);
+        if (u == null) return new String[0];
+        //sharded: só o dono do url tem as ligações que apontam para ele
+        if (shardCount > 1) return callShard(Shards.of(u, shardCount), b -> b.getIncomingLinks(u));
+        return call(barrels, b -> b.getIncomingLinks(u), "getIncomingLinks()");
     }
+
     //client-> gateway: putNewURL
+    //pedido explícito do cliente: entra sempre na fila, mesmo que já tenha sido visto
     @Override
     public void putNewURL(String url) throws RemoteException {
-        if (url == null || url.isBlank()) return;
-        String u = url.trim();
-        /*if (urlsToIndex.size() >= maxQueueSize) {
-            System.out.println("[Gateway] queue full (" + maxQueueSize + "), ignoring: " + u);
-            return;
-        }*/
-        urlsToIndex.add(u);
+        String u = UrlCanonicalizer.canonicalize(url);
+        if (u == null) return;
+        seenUrls.mark(u);
+        enqueue(u);
     }
 
     //downloader-> gateway: takeNext
     @Override
     public String takeNext() throws RemoteException {
-        return urlsToIndex.poll();
+        String u = urlsToIndex.poll();
+        requestRefill();
+        return u;
+    }
+
+    //downloader-> gateway: até max urls num só pedido
+    @Override
+    public String[] takeNextBatch(int max) throws RemoteException {
+        int n = Math.max(0, Math.min(max, MAX_BATCH));
+        String[] batch = urlsToIndex.poll(n).toArray(String[]::new);
+        requestRefill();
+        return batch;
+    }
+
+    //downloader-> gateway: links descobertos, todos de uma vez
+    //só entram os que ainda não foram vistos nesta janela de recrawl e que o RecrawlScheduler não acha frescos
+    //(um url já descarregado volta quando for a vez dele, não por ser redescoberto);
+    //os repetidos que ainda estão na fila ganham prioridade (mais um incoming link)
+    @Override
+    public void putNewURLs(String[] urls) throws RemoteException {
+        if (urls == null) return;
+        long now = System.currentTimeMillis();
+        for (String url : urls) {
+            String u = UrlCanonicalizer.canonicalize(url);
+            if (u == null) continue;
+            if (recrawl.fresh(u, now)) continue;
+            if (seenUrls.add(u)) enqueue(u);
+            else urlsToIndex.bump(u);
+        }
+    }
+
+    //downloader-> gateway: o que foi descarregado e o hash do conteúdo, para agendar o próximo crawl
+    @Override
+    public void reportCrawled(String[] urls, long[] contentHashes) throws RemoteException {
+        if (urls == null || contentHashes == null || urls.length != contentHashes.length) {
+            throw new RemoteException("reportCrawled: urls and hashes must have the same length");
+        }
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < urls.length; i++) {
+            if (urls[i] != null) recrawl.crawled(urls[i], contentHashes[i], now);
+        }
     }
 
     @Override
@@ -210,10 +516,10 @@ public class Gateway extends UnicastRemoteObject implements GatewayService {
             System.out.println("[Gateway] Client registered for stats updates (total clients: " + registeredClients.size() + ")");
             
             // Send initial stats
+            StatsSnapshot stats = latestStats;
             try {
-                client.updateTop10Searches(currentTop10);
-                client.updateBarrelStatus(getBarrelStatus());
-                client.updateResponseTimes(getAverageResponseTimes());
+                send(client, stats);
+                deliveries.put(client, new Delivery(stats.generation(), System.currentTimeMillis(), CompletableFuture.completedFuture(null)));
             } catch (RemoteException e) {
                 System.err.println("[Gateway] Failed to send initial stats: " + e.getMessage());
                 registeredClients.remove(client);
@@ -225,26 +531,22 @@ public class Gateway extends UnicastRemoteObject implements GatewayService {
     @Override
     public void unregisterClient(ClientCallback client) throws RemoteException {
         registeredClients.remove(client);
+        deliveries.remove(client);
         System.out.println("[Gateway] Client unregistered from stats updates");
     }
 
     //update às stats no barrel
     private void trackBarrelStats(String barrelName, long elapsed) {
-        barrelTotalTime.put(barrelName, barrelTotalTime.getOrDefault(barrelName, 0L) + elapsed);
-        barrelSearchCount.put(barrelName, barrelSearchCount.getOrDefault(barrelName, 0L) + 1);
-        updateTop10IfChanged();
+        //merge: no modo sharded chega de várias threads ao mesmo tempo
+        barrelTotalTime.merge(barrelName, elapsed, Long::sum);
+        barrelSearchCount.merge(barrelName, 1L, Long::sum);
     }
     
-    //ir buscar um map: barrel name -> index size
+    //ir buscar um map: barrel name -> index size (o último visto pelo health check, sem RMI aqui)
     private Map<String, Integer> getBarrelStatus() {
         Map<String, Integer> status = new HashMap<>();
-        for (int i = 0; i < barrels.size(); i++) {
-            try {
-                int indexSize = barrels.get(i).getIndexSize();
-                status.put(barrelNames.get(i), indexSize);
-            } catch (RemoteException e) {
-                System.err.println("[Gateway] Failed to get status for " + barrelNames.get(i));
-            }
+        for (BarrelEndpoint b : barrels) {
+            if (b.healthy()) status.put(b.name, b.indexSize());
         }
         return status;
     }
@@ -265,52 +567,59 @@ public class Gateway extends UnicastRemoteObject implements GatewayService {
         return avgTimes;
     }
     
-    private void updateTop10IfChanged() {
-        List<Map.Entry<String, Long>> entries = new ArrayList<>(searchCounters.entrySet());
-        entries.sort((e1, e2) -> Long.compare(e2.getValue(), e1.getValue()));
-        
-        //sacar top 10
-        int limit = Math.min(10, entries.size());//se houver menos de 10, pega no q ha
-        String[][] newTop10 = new String[limit][2];
-        for (int i = 0; i < limit; i++) {
-            Map.Entry<String, Long> entry = entries.get(i);
-            newTop10[i][0] = entry.getKey(); //getKey é a search term
-            newTop10[i][1] = String.valueOf(entry.getValue());//value é o count
-        }
-        
-        String oldStr = java.util.Arrays.deepToString(currentTop10);
-        String newStr = java.util.Arrays.deepToString(newTop10);
-        
-        if (!oldStr.equals(newStr)) {
-            currentTop10 = newTop10;
-            // Send all stats together when top10 changes
-            Map<String, Integer> barrelStatus = getBarrelStatus();
-            Map<String, Double> responseTimes = getAverageResponseTimes();
-            
-            notifyClients(client -> {
-                client.updateBarrelStatus(barrelStatus);
-                client.updateResponseTimes(responseTimes);
-                client.updateTop10Searches(newTop10);
-            });
+    //corre no scheduler: compara o estado atual com o último publicado e, se mudou, passa a ser a nova geração;
+    //depois cada cliente que ainda não a tem recebe-a (em paralelo), por isso várias mudanças num intervalo dão um envio só
+    private void publishStats() {
+        StatsSnapshot last = latestStats;
+        //sem pesquisas novas desde o último publish o top é o mesmo
+        long topVersion = topQueries.version();
+        String[][] top10 = (topVersion == publishedTopVersion) ? last.top10() : topQueries.top(10);
+        publishedTopVersion = topVersion;
+        Map<String, Integer> barrelStatus = getBarrelStatus();
+        Map<String, Double> responseTimes = getAverageResponseTimes();
+        Map<String, Long> cacheStats = queryCache.stats();
+        if (!Arrays.deepEquals(top10, last.top10()) || !barrelStatus.equals(last.barrelStatus())
+                || !responseTimes.equals(last.responseTimes()) || !cacheStats.equals(last.cacheStats())) {
+            latestStats = new StatsSnapshot(last.generation() + 1, top10, barrelStatus, responseTimes, cacheStats);
         }
+        notifyClients(latestStats);
     }
-    
-    private void notifyClients(ClientNotification notification) {
-        List<ClientCallback> failedClients = new ArrayList<>();
+
+    private void notifyClients(StatsSnapshot stats) {
+        long now = System.currentTimeMillis();
         for (ClientCallback client : registeredClients) {
-            try {
-                notification.notify(client);
-            } catch (RemoteException e) {
-                System.err.println("[Gateway] Failed to notify client, removing: " + e.getMessage());
-                failedClients.add(client);
+            Delivery d = deliveries.get(client);
+            if (d != null && !d.task().isDone()) {
+                //ainda a receber a anterior: um cliente lento não atrasa os outros, mas passado o timeout sai
+                if (now - d.startedAt() > clientTimeoutMs) {
+                    System.err.println("[Gateway] Client did not take stats within " + clientTimeoutMs + "ms, removing");
+                    d.task().cancel(true);
+                    dropClient(client);
+                }
+                continue;
             }
+            if (d != null && d.generation() >= stats.generation()) continue;
+            deliveries.put(client, new Delivery(stats.generation(), now, fanout.submit(() -> {
+                try {
+                    send(client, stats);
+                } catch (RemoteException e) {
+                    System.err.println("[Gateway] Failed to notify client, removing: " + e.getMessage());
+                    dropClient(client);
+                }
+            })));
         }
-        registeredClients.removeAll(failedClients);
     }
-    
-    @FunctionalInterface
-    private interface ClientNotification {
-        void notify(ClientCallback client) throws RemoteException;
+
+    private void send(ClientCallback client, StatsSnapshot stats) throws RemoteException {
+        client.updateBarrelStatus(stats.barrelStatus());
+        client.updateResponseTimes(stats.responseTimes());
+        client.updateCacheStats(stats.cacheStats());
+        client.updateTop10Searches(stats.top10());
+    }
+
+    private void dropClient(ClientCallback client) {
+        registeredClients.remove(client);
+        deliveries.remove(client);
     }
 
     public static void main(String[] args) {
@@ -326,6 +635,7 @@ public class Gateway extends UnicastRemoteObject implements GatewayService {
             int bindPort = Integer.parseInt(cfg.getProperty("gateway.port"));
 
             Gateway gw = new Gateway(cfg);
+            Runtime.getRuntime().addShutdownHook(new Thread(gw::saveFrontier));
 
             System.setProperty("java.rmi.server.hostname", bindHost);
             try {
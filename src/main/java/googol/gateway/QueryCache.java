@@ -0,0 +1,79 @@
+package googol.gateway;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import googol.common.Query;
+import googol.common.Tokenizer;
+import googol.common.dto.SearchResult;
+
+//cache LRU de (termos normalizados, pagina) -> resultados
+//cada entrada expira depois de ttlMs e a cache inteira é invalidada quando os barrels indexam mais páginas
+class QueryCache {
+    //só parte e normaliza (minúsculas, sem acentos): sem stopwords nem stemming, que dependem do index.* de cada barrel;
+    //assim "the cat" e "cat" nunca partilham entrada, mesmo com barrels que não tiram stopwords
+    private static final Tokenizer KEY_TOKENIZER = new Tokenizer(false, false);
+
+    private record Entry(SearchResult[] results, long createdAt) {}
+
+    private final int maxEntries;
+    private final long ttlMs;
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    QueryCache(int maxEntries, long ttlMs) {
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > QueryCache.this.maxEntries;
+            }
+        };
+    }
+
+    //a ordem e as maiúsculas não mudam o resultado do barrel (fora das frases entre aspas)
+    static String key(String[] terms, int page) {
+        return Query.parse(terms, KEY_TOKENIZER).key() + "#" + page;
+    }
+
+    synchronized SearchResult[] get(String key) {
+        Entry e = entries.get(key);
+        if (e != null && System.currentTimeMillis() - e.createdAt() > ttlMs) {
+            entries.remove(key);
+            e = null;
+        }
+        if (e == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return e.results();
+    }
+
+    synchronized void put(String key, SearchResult[] results) {
+        if (maxEntries <= 0) return;
+        entries.put(key, new Entry(results, System.currentTimeMillis()));
+    }
+
+    synchronized void invalidateAll() {
+        if (entries.isEmpty()) return;
+        entries.clear();
+        invalidations.incrementAndGet();
+    }
+
+    //para mandar aos clientes
+    synchronized Map<String, Long> stats() {
+        Map<String, Long> m = new HashMap<>();
+        m.put("hits", hits.get());
+        m.put("misses", misses.get());
+        m.put("entries", (long) entries.size());
+        m.put("invalidations", invalidations.get());
+        return m;
+    }
+}
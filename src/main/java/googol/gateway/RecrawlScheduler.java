@@ -0,0 +1,229 @@
+package googol.gateway;
+
+import googol.common.dto.PageDTO;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+//quando voltar a descarregar cada url já visitado, a partir do hash do conteúdo que o downloader reporta:
+//mudou desde o último crawl -> intervalo x changedFactor, igual -> intervalo x unchangedFactor (entre min e max)
+//assim as páginas que mudam muito são visitadas mais vezes e as paradas quase nunca
+//o estado é por id (url -> id) em arrays, e não um objeto por url; a agenda é um heap de (quando, id)
+//onde as entradas antigas de um url ficam até sair e são ignoradas (como o ready do Frontier)
+//no máximo maxUrls: cheio, sai o de maior intervalo entre EVICT_SAMPLE ao calhas (o que menos muda)
+//e o id dele é reaproveitado; se o url voltar a ser descoberto é tratado como novo
+class RecrawlScheduler {
+    private static final int FORMAT = 2;//1: urls com writeUTF (até 64KB)
+    private static final int EVICT_SAMPLE = 8;
+
+    private final long initialMs;
+    private final long minMs;
+    private final long maxMs;
+    private final double changedFactor;
+    private final double unchangedFactor;
+    private final int maxUrls;
+    private final Path file;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private String[] urls = new String[1024];
+    private long[] hashes = new long[1024];
+    private long[] intervals = new long[1024];
+    private long[] due = new long[1024];//a entrada válida no heap é a que tem este valor
+    private int[] gens = new int[1024];//muda quando o id é reaproveitado, para as entradas do url antigo não contarem
+    private int size;//ids já usados (urls[id] == null -> livre)
+    private int live;
+    private int[] free = new int[16];
+    private int freeCount;
+
+    private record Due(long at, int id, int gen) {}
+    private final PriorityQueue<Due> agenda = new PriorityQueue<>((a, b) -> Long.compare(a.at(), b.at()));
+
+    //desde o último stats()
+    private int changed;
+    private int unchanged;
+    private int issued;
+    private int evicted;
+
+    RecrawlScheduler(long initialMs, long minMs, long maxMs, double changedFactor, double unchangedFactor, int maxUrls, Path file) {
+        this.initialMs = initialMs;
+        this.minMs = minMs;
+        this.maxMs = maxMs;
+        this.changedFactor = changedFactor;
+        this.unchangedFactor = unchangedFactor;
+        this.maxUrls = Math.max(1, maxUrls);
+        this.file = file;
+        try {
+            load();
+        } catch (IOException e) {
+            System.err.println("[Recrawl] Could not read " + file + ", starting empty: " + e.getMessage());
+        }
+    }
+
+    //o downloader descarregou url agora e o conteúdo tem este hash
+    synchronized void crawled(String url, long hash, long now) {
+        Integer known = ids.get(url);
+        int id;
+        long interval;
+        if (known == null) {
+            id = add(url);
+            interval = initialMs;
+        } else {
+            id = known;
+            boolean same = hashes[id] == hash;
+            if (same) unchanged++;
+            else changed++;
+            interval = (long) (intervals[id] * (same ? unchangedFactor : changedFactor));
+            interval = Math.max(minMs, Math.min(maxMs, interval));
+        }
+        hashes[id] = hash;
+        intervals[id] = interval;
+        schedule(id, now + interval);
+    }
+
+    //até max urls cuja vez já chegou; se o crawl falhar e não vier report, voltam a sair daqui a um intervalo
+    synchronized List<String> due(long now, int max) {
+        List<String> out = new ArrayList<>();
+        while (out.size() < max && !agenda.isEmpty() && agenda.peek().at() <= now) {
+            Due d = agenda.poll();
+            if (!valid(d)) continue;
+            out.add(urls[d.id()]);
+            schedule(d.id(), now + intervals[d.id()]);
+        }
+        issued += out.size();
+        return out;
+    }
+
+    //já foi descarregado e ainda não é altura de voltar (um link redescoberto não conta)
+    synchronized boolean fresh(String url, long now) {
+        Integer id = ids.get(url);
+        return id != null && due[id] > now;
+    }
+
+    synchronized Map<String, Double> stats() {
+        Map<String, Double> m = new HashMap<>();
+        m.put("urls", (double) live);
+        m.put("changed", (double) changed);
+        m.put("unchanged", (double) unchanged);
+        m.put("issued", (double) issued);
+        m.put("evicted", (double) evicted);
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            if (urls[i] != null) sum += intervals[i];
+        }
+        m.put("avgIntervalMs", (live == 0) ? 0 : sum / live);
+        changed = 0;
+        unchanged = 0;
+        issued = 0;
+        evicted = 0;
+        return m;
+    }
+
+    private int add(String url) {
+        if (live >= maxUrls) evict();
+        int id;
+        if (freeCount > 0) {
+            id = free[--freeCount];
+            gens[id]++;
+        } else {
+            if (size == urls.length) {
+                int n = size * 2;
+                urls = Arrays.copyOf(urls, n);
+                hashes = Arrays.copyOf(hashes, n);
+                intervals = Arrays.copyOf(intervals, n);
+                due = Arrays.copyOf(due, n);
+                gens = Arrays.copyOf(gens, n);
+            }
+            id = size++;
+        }
+        urls[id] = url;
+        ids.put(url, id);
+        live++;
+        return id;
+    }
+
+    //cheio: ids usados = vivos, por isso a amostra cai sempre num url
+    private void evict() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int victim = -1;
+        for (int i = 0; i < EVICT_SAMPLE; i++) {
+            int id = rnd.nextInt(size);
+            if (urls[id] != null && (victim < 0 || intervals[id] > intervals[victim])) victim = id;
+        }
+        if (victim < 0) return;
+        ids.remove(urls[victim]);
+        urls[victim] = null;
+        live--;
+        evicted++;
+        if (freeCount == free.length) free = Arrays.copyOf(free, freeCount * 2);
+        free[freeCount++] = victim;
+    }
+
+    private boolean valid(Due d) {
+        int id = d.id();
+        return urls[id] != null && gens[id] == d.gen() && due[id] == d.at();
+    }
+
+    private void schedule(int id, long at) {
+        due[id] = at;
+        agenda.add(new Due(at, id, gens[id]));
+        //cada crawl deixa uma entrada obsoleta que só sai quando a hora dela chega (até maxMs depois)
+        if (agenda.size() > 4 * live + 1024) {
+            List<Due> keep = new ArrayList<>(live);
+            for (Due d : agenda) {
+                if (valid(d)) keep.add(d);
+            }
+            agenda.clear();
+            agenda.addAll(keep);
+        }
+    }
+
+    //ficheiro temporário + move, para um crash a meio não estragar o anterior
+    synchronized void save() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp.toFile())))) {
+            out.writeInt(FORMAT);
+            out.writeInt(live);
+            for (int i = 0; i < size; i++) {
+                if (urls[i] == null) continue;
+                PageDTO.writeString(out, urls[i]);
+                out.writeLong(hashes[i]);
+                out.writeLong(intervals[i]);
+                out.writeLong(due[i]);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file.toFile())))) {
+            int format = in.readInt();
+            if (format != 1 && format != FORMAT) throw new IOException("unknown recrawl state format");
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String url = (format == 1) ? in.readUTF() : PageDTO.readString(in);
+                if (url == null) throw new IOException("corrupt recrawl state");
+                int id = add(url);
+                hashes[id] = in.readLong();
+                intervals[id] = in.readLong();
+                schedule(id, in.readLong());
+            }
+        }
+        System.out.println("[Recrawl] Loaded schedule for " + live + " URLs");
+    }
+}
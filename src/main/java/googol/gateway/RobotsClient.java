@@ -0,0 +1,68 @@
+package googol.gateway;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.function.LongConsumer;
+
+//vai buscar o robots.txt de um host em background e devolve o Crawl-delay (em ms) do grupo "User-agent: *"
+final class RobotsClient {
+    private static final long MAX_DELAY_MS = 60_000;//um site não nos prende mais do que isto
+
+    private final HttpClient http = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+    //callback só é chamado se o robots.txt existir e tiver Crawl-delay
+    void fetchCrawlDelay(String scheme, String host, LongConsumer onDelay) {
+        HttpRequest req;
+        try {
+            req = HttpRequest.newBuilder(URI.create(scheme + "://" + host + "/robots.txt"))
+                    .timeout(Duration.ofSeconds(10))
+                    .GET()
+                    .build();
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        http.sendAsync(req, HttpResponse.BodyHandlers.ofString())
+            .thenAccept(resp -> {
+                if (resp.statusCode() != 200) return;
+                long ms = parseCrawlDelay(resp.body());
+                if (ms > 0) onDelay.accept(Math.min(ms, MAX_DELAY_MS));
+            })
+            .exceptionally(e -> null);
+    }
+
+    static long parseCrawlDelay(String robots) {
+        boolean inStarGroup = false;
+        boolean lastWasAgent = false;
+        for (String raw : robots.split("\r?\n")) {
+            int hash = raw.indexOf('#');
+            String line = (hash >= 0 ? raw.substring(0, hash) : raw).trim();
+            int colon = line.indexOf(':');
+            if (colon < 0) continue;
+            String key = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            if (key.equals("user-agent")) {
+                //várias linhas User-agent seguidas fazem parte do mesmo grupo
+                boolean star = value.equals("*");
+                inStarGroup = lastWasAgent ? (inStarGroup || star) : star;
+                lastWasAgent = true;
+                continue;
+            }
+            lastWasAgent = false;
+            if (inStarGroup && key.equals("crawl-delay")) {
+                try {
+                    return (long) (Double.parseDouble(value) * 1000);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+}
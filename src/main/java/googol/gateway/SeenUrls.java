@@ -0,0 +1,144 @@
+package googol.gateway;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import googol.common.Hashes;
+
+//urls já postos na fila, para cada um só ser descarregado uma vez por janela de recrawl
+//set exato com os mais recentes (sem falsos positivos) + scalable bloom filter para o resto:
+//quando um filtro enche cria-se outro com o dobro da capacidade e metade da taxa de erro,
+//por isso a taxa total fica limitada a ~2x a inicial sem saber o tamanho do crawl à partida
+//no fim de cada janela o filtro atual passa a "anterior" e o antigo anterior é deitado fora
+class SeenUrls {
+    private final int initialCapacity;
+    private final double initialFpr;
+    private final int recentSize;
+
+    private final LinkedHashMap<String, Boolean> recent;
+    private List<BloomFilter> current = new ArrayList<>();
+    private List<BloomFilter> previous = new ArrayList<>();
+
+    SeenUrls(int initialCapacity, double initialFpr, int recentSize) {
+        this.initialCapacity = initialCapacity;
+        this.initialFpr = initialFpr;
+        this.recentSize = recentSize;
+        this.recent = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > SeenUrls.this.recentSize;
+            }
+        };
+        current.add(new BloomFilter(initialCapacity, initialFpr));
+    }
+
+    //true se o url é novo (e fica marcado), false se já foi visto nesta janela
+    synchronized boolean add(String url) {
+        if (recent.containsKey(url)) return false;
+        long h = hash(url);
+        if (mightContain(current, h) || mightContain(previous, h)) return false;
+        recent.put(url, Boolean.TRUE);
+        BloomFilter last = current.get(current.size() - 1);
+        if (last.isFull()) {
+            last = new BloomFilter(last.capacity * 2, last.fpr / 2);
+            current.add(last);
+        }
+        last.add(h);
+        return true;
+    }
+
+    //marca sem perguntar (urls postos à mão pelo cliente)
+    synchronized void mark(String url) {
+        if (recent.put(url, Boolean.TRUE) != null) return;
+        long h = hash(url);
+        if (!mightContain(current, h)) current.get(current.size() - 1).add(h);
+    }
+
+    //nova janela de recrawl
+    synchronized void rotate() {
+        previous = current;
+        current = new ArrayList<>();
+        current.add(new BloomFilter(initialCapacity, initialFpr));
+        recent.clear();
+    }
+
+    synchronized Map<String, Double> stats() {
+        long bits = 0, inserted = 0;
+        double notFalse = 1.0;
+        for (List<BloomFilter> gen : List.of(current, previous)) {
+            for (BloomFilter f : gen) {
+                bits += f.bits.length * 64L;
+                inserted += f.count;
+                notFalse *= 1.0 - f.estimatedFpr();
+            }
+        }
+        Map<String, Double> m = new HashMap<>();
+        m.put("urls", (double) inserted);
+        m.put("filters", (double) (current.size() + previous.size()));
+        m.put("bloomBytes", bits / 8.0);
+        m.put("recent", (double) recent.size());
+        m.put("fpr", 1.0 - notFalse);
+        return m;
+    }
+
+    private static boolean mightContain(List<BloomFilter> filters, long h) {
+        for (BloomFilter f : filters) {
+            if (f.mightContain(h)) return true;
+        }
+        return false;
+    }
+
+    //FNV-1a de 64 bits + mix final; as k posições saem de double hashing com as duas metades
+    private static long hash(String s) {
+        return Hashes.mix(Hashes.fnv1a(s));
+    }
+
+    private static final class BloomFilter {
+        final int capacity;
+        final double fpr;
+        final long[] bits;
+        final int numBits;
+        final int k;
+        int count;
+
+        BloomFilter(int capacity, double fpr) {
+            this.capacity = Math.max(1, capacity);
+            this.fpr = fpr;
+            //m = -n ln(p) / ln(2)^2, k = m/n ln(2)
+            long m = (long) Math.ceil(-this.capacity * Math.log(fpr) / (Math.log(2) * Math.log(2)));
+            this.numBits = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, m));
+            this.bits = new long[(numBits + 63) / 64];
+            this.k = Math.max(1, (int) Math.round((double) numBits / this.capacity * Math.log(2)));
+        }
+
+        boolean isFull() {
+            return count >= capacity;
+        }
+
+        void add(long h) {
+            int h1 = (int) h, h2 = (int) (h >>> 32);
+            for (int i = 0; i < k; i++) {
+                int pos = Math.floorMod(h1 + i * h2, numBits);
+                bits[pos >>> 6] |= 1L << pos;
+            }
+            count++;
+        }
+
+        boolean mightContain(long h) {
+            int h1 = (int) h, h2 = (int) (h >>> 32);
+            for (int i = 0; i < k; i++) {
+                int pos = Math.floorMod(h1 + i * h2, numBits);
+                if ((bits[pos >>> 6] & (1L << pos)) == 0) return false;
+            }
+            return true;
+        }
+
+        //(1 - e^(-kn/m))^k com o n atual
+        double estimatedFpr() {
+            return Math.pow(1 - Math.exp(-(double) k * count / numBits), k);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package googol.gateway;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+//pesquisas mais frequentes com memória fixa (Space-Saving): guarda só `capacity` contadores;
+//uma query nova que não cabe fica com o contador da menos contada (+1), por isso os counts podem vir por excesso,
+//mas qualquer query com mais de N/capacity pesquisas está garantidamente lá
+//cada add é O(log capacity), e o top-k lê-se direto da árvore, sem ordenar tudo
+class TopQueries {
+    private static final class Counter {
+        final String query;
+        long count;
+        final long seq;//desempate estável: a mais antiga primeiro
+
+        Counter(String query, long count, long seq) {
+            this.query = query;
+            this.count = count;
+            this.seq = seq;
+        }
+    }
+
+    private final int capacity;
+    private final Map<String, Counter> counters = new HashMap<>();
+    //ordenado por count desc; o último é o que sai quando não há espaço
+    private final TreeSet<Counter> byCount = new TreeSet<>((a, b) -> {
+        int c = Long.compare(b.count, a.count);
+        return (c != 0) ? c : Long.compare(a.seq, b.seq);
+    });
+    private long seq;
+    private long version;//muda a cada add, para o publisher saber se vale a pena olhar
+
+    TopQueries(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    synchronized void add(String query) {
+        Counter c = counters.get(query);
+        if (c != null) {
+            byCount.remove(c);
+            c.count++;
+        } else if (counters.size() < capacity) {
+            c = new Counter(query, 1, seq++);
+            counters.put(query, c);
+        } else {
+            Counter min = byCount.pollLast();
+            counters.remove(min.query);
+            c = new Counter(query, min.count + 1, seq++);
+            counters.put(query, c);
+        }
+        byCount.add(c);
+        version++;
+    }
+
+    synchronized long version() {
+        return version;
+    }
+
+    //[query, count] no formato que o cliente já recebia
+    synchronized String[][] top(int k) {
+        List<String[]> out = new ArrayList<>(k);
+        for (Counter c : byCount) {
+            if (out.size() == k) break;
+            out.add(new String[] { c.query, String.valueOf(c.count) });
+        }
+        return out.toArray(String[][]::new);
+    }
+}
@@ -0,0 +1,59 @@
+package googol.common;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//Tokenizer: termos esperados para textos pt/en (acentos, maiúsculas, stopwords, pontuação, lixo comprido),
+//os offsets apontam para a palavra no texto original, NFD dá o mesmo que NFC, e o stemming dos plurais
+//correr: java -cp target/classes:target/test-classes googol.common.TokenizerCheck
+public class TokenizerCheck {
+    public static void main(String[] args) {
+        List<String> errors = new ArrayList<>();
+        Tokenizer t = Tokenizer.DEFAULT;
+
+        terms(errors, t, "O Cão e o Gato", "cao", "gato");
+        terms(errors, t, "Ação, reação!  Coração.", "acao", "reacao", "coracao");
+        terms(errors, t, "The quick-brown fox: 42 times", "quick", "brown", "fox", "42", "times");
+        terms(errors, t, "São Paulo — Straße ÆON", "sao", "paulo", "strasse", "aeon");
+        terms(errors, t, "x".repeat(65) + " curto " + "y".repeat(64), "curto", "y".repeat(64));
+        terms(errors, t, "", new String[0]);
+        terms(errors, t, "de da do", new String[0]);
+        terms(errors, new Tokenizer(false, false), "o cão de guarda", "o", "cao", "de", "guarda");
+        terms(errors, new Tokenizer(true, true), "Os cães e as lições dos homens", "cao", "licao", "homem");
+
+        String nfc = "Informação pública sobre o pão";
+        String nfd = Normalizer.normalize(nfc, Normalizer.Form.NFD);
+        check(errors, Arrays.equals(t.terms(nfc), t.terms(nfd)), "NFD " + Arrays.toString(t.terms(nfd)) + " != NFC " + Arrays.toString(t.terms(nfc)));
+
+        //os offsets são do texto original, para os snippets
+        String text = "Olá, Mundo! Cão.";
+        List<String> spans = new ArrayList<>();
+        t.tokenize(text, (term, start, end) -> spans.add(term + "=" + text.substring(start, end)));
+        check(errors, spans.equals(List.of("ola=Olá", "mundo=Mundo", "cao=Cão")), "offsets " + spans);
+
+        String[][] stems = { { "flores", "flor" }, { "animais", "animal" }, { "papeis", "papel" }, { "lencois", "lencol" },
+                             { "luzes", "luz" }, { "class", "class" }, { "bus", "bus" }, { "gatos", "gato" }, { "mas", "mas" } };
+        for (String[] s : stems) check(errors, Tokenizer.stem(s[0]).equals(s[1]), "stem(" + s[0] + ") = " + Tokenizer.stem(s[0]));
+
+        //as queries passam pelo mesmo tokenizer que o índice
+        Query q = Query.parse(new String[] { "\"Cão Preto\"", "SOFÁ" });
+        check(errors, Arrays.equals(q.words, new String[] { "cao", "preto", "sofa" }), "query words " + Arrays.toString(q.words));
+
+        if (!errors.isEmpty()) {
+            for (String e : errors) System.out.println("[TokenizerCheck] FAIL " + e);
+            System.exit(1);
+        }
+        System.out.println("[TokenizerCheck] OK");
+    }
+
+    private static void terms(List<String> errors, Tokenizer t, String text, String... expected) {
+        String[] got = t.terms(text);
+        check(errors, Arrays.equals(got, expected), "'" + text + "' -> " + Arrays.toString(got) + ", expected " + Arrays.toString(expected));
+    }
+
+    private static void check(List<String> errors, boolean ok, String msg) {
+        if (!ok) errors.add(msg);
+    }
+}
@@ -0,0 +1,140 @@
+package googol.downloader;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import googol.common.dto.PageDTO;
+
+//DeliverySpool: as páginas saem pela ordem em que entraram, sobrevivem a um restart, e um registo corrompido
+//faz saltar o resto do segmento sem deixar o size() preso (com o spool aberto e depois de reabrir)
+//correr: java -cp target/classes:target/test-classes googol.downloader.DeliverySpoolCheck
+public class DeliverySpoolCheck {
+    private static final int PER_SEGMENT = 1000;//igual ao PAGES_PER_SEGMENT do spool
+
+    public static void main(String[] args) throws Exception {
+        List<String> errors = new ArrayList<>();
+        roundTrip(errors);
+        corruptWhileOpen(errors);
+        corruptThenReopen(errors);
+        if (!errors.isEmpty()) {
+            for (String e : errors) System.out.println("[SpoolCheck] FAIL " + e);
+            System.exit(1);
+        }
+        System.out.println("[SpoolCheck] OK");
+    }
+
+    //2500 páginas (3 segmentos), metade entregue, restart, o resto entregue pela mesma ordem
+    private static void roundTrip(List<String> errors) throws IOException {
+        Path dir = Files.createTempDirectory("spool-check");
+        DeliverySpool spool = new DeliverySpool(dir);
+        for (int i = 0; i < 2500; i++) spool.append(page(i));
+        List<String> got = drain(spool, 1250);
+        spool.close();
+
+        spool = new DeliverySpool(dir);
+        check(errors, spool.size() == 1250, "after restart size " + spool.size() + " != 1250");
+        got.addAll(drain(spool, Integer.MAX_VALUE));
+        check(errors, spool.size() == 0, "round trip: size " + spool.size() + " at the end");
+        check(errors, got.equals(urls(0, 2500)), "round trip: pages out of order or missing (" + got.size() + ")");
+        spool.close();
+        delete(dir);
+    }
+
+    //o registo 500 do primeiro segmento estraga-se com o spool aberto: saem 0..499 e o segundo e terceiro segmentos
+    private static void corruptWhileOpen(List<String> errors) throws IOException {
+        Path dir = Files.createTempDirectory("spool-check");
+        DeliverySpool spool = new DeliverySpool(dir);
+        for (int i = 0; i < 2500; i++) spool.append(page(i));
+        spool.sync();
+        corrupt(dir, 0, 500);
+        List<String> got = drain(spool, Integer.MAX_VALUE);
+        List<String> expected = urls(0, 500);
+        expected.addAll(urls(PER_SEGMENT, 2500));
+        check(errors, got.equals(expected), "corrupt while open: got " + got.size() + " pages, expected " + expected.size());
+        check(errors, spool.size() == 0, "corrupt while open: size " + spool.size() + " after draining");
+        spool.close();
+        delete(dir);
+    }
+
+    private static void corruptThenReopen(List<String> errors) throws IOException {
+        Path dir = Files.createTempDirectory("spool-check");
+        DeliverySpool spool = new DeliverySpool(dir);
+        for (int i = 0; i < 2500; i++) spool.append(page(i));
+        spool.close();
+        corrupt(dir, 1, 10);
+
+        spool = new DeliverySpool(dir);
+        check(errors, spool.size() == 2500 - (PER_SEGMENT - 10), "corrupt then reopen: size " + spool.size());
+        List<String> got = drain(spool, Integer.MAX_VALUE);
+        List<String> expected = urls(0, PER_SEGMENT + 10);
+        expected.addAll(urls(2 * PER_SEGMENT, 2500));
+        check(errors, got.equals(expected), "corrupt then reopen: got " + got.size() + " pages, expected " + expected.size());
+        check(errors, spool.size() == 0, "corrupt then reopen: size " + spool.size() + " after draining");
+        spool.close();
+        delete(dir);
+    }
+
+    //peek + ack em lotes de 100, como o BarrelQueue
+    private static List<String> drain(DeliverySpool spool, int max) throws IOException {
+        List<String> got = new ArrayList<>();
+        while (got.size() < max) {
+            List<PageDTO> batch = spool.peek(Math.min(100, max - got.size()));
+            if (batch.isEmpty()) break;
+            for (PageDTO p : batch) got.add(p.url);
+            spool.ack();
+        }
+        return got;
+    }
+
+    //troca um byte do payload do registo n do segmento (0 = o mais antigo), para o crc falhar
+    private static void corrupt(Path dir, int segment, int n) throws IOException {
+        Path file;
+        try (Stream<Path> files = Files.list(dir)) {
+            file = files.filter(p -> p.getFileName().toString().startsWith("spool-")).sorted().toList().get(segment);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            long pos = 0;
+            for (int i = 0; i < n; i++) {
+                raf.seek(pos);
+                pos += 12 + raf.readInt();
+            }
+            raf.seek(pos + 12);
+            int b = raf.read();
+            raf.seek(pos + 12);
+            raf.write(b ^ 0xff);
+        }
+    }
+
+    private static PageDTO page(int i) {
+        PageDTO p = new PageDTO(url(i), "page " + i, "texto da pagina " + i, Set.of(url(i + 1)));
+        p.version = i;
+        return p;
+    }
+
+    private static String url(int i) {
+        return "http://spool.test/" + i;
+    }
+
+    private static List<String> urls(int from, int to) {
+        List<String> out = new ArrayList<>();
+        for (int i = from; i < to; i++) out.add(url(i));
+        return out;
+    }
+
+    private static void check(List<String> errors, boolean ok, String msg) {
+        if (!ok) errors.add(msg);
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package googol.downloader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import googol.common.Query;
+import googol.common.Tokenizer;
+import googol.common.dto.PageDTO;
+
+//IndexSegment: escrever com saveToDisk e ler com loadFromDisk dá as mesmas respostas (VERSION atual, e depois de
+//mexer no índice carregado e gravar outra vez); os formatos antigos (1 a 5, escritos aqui à mão pelo layout
+//documentado no IndexSegment, e o ObjectOutputStream de antes dos segmentos) continuam a abrir e a migrar
+//correr: java -cp target/classes:target/test-classes googol.downloader.IndexSegmentCheck
+public class IndexSegmentCheck {
+    private static final String A = "http://seg.test/a";
+    private static final String B = "http://seg.test/b";
+    private static final String C = "http://seg.test/c";
+    private static final long VERSION = 7;
+
+    //url -> {título, texto}, e url -> links de saída; docIds pela ordem daqui (A=0, B=1, C=2)
+    private static final Map<String, String[]> PAGES = new LinkedHashMap<>();
+    private static final Map<String, List<String>> OUT = new HashMap<>();
+    static {
+        PAGES.put(A, new String[] { "Alpha", "O gato preto dorme no sofá" });
+        PAGES.put(B, new String[] { "Beta", "Um cão preto corre" });
+        PAGES.put(C, new String[] { "Gama", "gato branco" });
+        OUT.put(A, List.of(B, C));
+        OUT.put(B, List.of(A));
+        OUT.put(C, List.of());
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> errors = new ArrayList<>();
+        Path dir = Files.createTempDirectory("segment-check");
+
+        //versão atual: ida e volta, e outra vez depois de um re-crawl por cima do base
+        InvertedIndex original = new InvertedIndex();
+        List<PageDTO> batch = new ArrayList<>();
+        for (String u : PAGES.keySet()) batch.add(page(u, PAGES.get(u)[1], VERSION));
+        original.addPages(batch);
+        verify(original, "in memory", IndexSegment.VERSION, errors);
+        InvertedIndex loaded = saveAndLoad(original, dir.resolve("v" + IndexSegment.VERSION + ".idx"));
+        verify(loaded, "v" + IndexSegment.VERSION, IndexSegment.VERSION, errors);
+        compare(original, loaded, "v" + IndexSegment.VERSION, errors);
+
+        loaded.addPages(List.of(page(C, "gato amarelo", VERSION + 1)));
+        InvertedIndex again = saveAndLoad(loaded, dir.resolve("v" + IndexSegment.VERSION + "-recrawl.idx"));
+        check(errors, again.searchWord("branco").isEmpty(), "recrawl: 'branco' still found after save/load");
+        check(errors, again.searchWord("amarelo").equals(Set.of(C)), "recrawl: 'amarelo' not found after save/load");
+        check(errors, again.searchWord("gato").equals(Set.of(A, C)), "recrawl: 'gato' " + again.searchWord("gato"));
+        check(errors, again.pageVersion(C) == VERSION + 1, "recrawl: version " + again.pageVersion(C));
+
+        //formatos antigos
+        for (int format = 1; format < IndexSegment.VERSION; format++) {
+            Path file = dir.resolve("v" + format + ".idx");
+            writeLegacy(file, format);
+            InvertedIndex old = new InvertedIndex();
+            old.loadFromDisk(file.toString());
+            verify(old, "v" + format, format, errors);
+            //migrado para o formato atual responde igual
+            InvertedIndex migrated = saveAndLoad(old, dir.resolve("v" + format + "-migrated.idx"));
+            verify(migrated, "v" + format + " migrated", format, errors);
+        }
+        Path oos = dir.resolve("objects.ser");
+        writeSerialized(oos);
+        InvertedIndex fromObjects = new InvertedIndex();
+        fromObjects.loadFromDisk(oos.toString());
+        verify(fromObjects, "ObjectOutputStream", 0, errors);
+        verify(saveAndLoad(fromObjects, dir.resolve("objects-migrated.idx")), "ObjectOutputStream migrated", 0, errors);
+
+        if (!errors.isEmpty()) {
+            for (String e : errors) System.out.println("[SegmentCheck] FAIL " + e);
+            System.exit(1);
+        }
+        System.out.println("[SegmentCheck] OK");
+    }
+
+    //format: de que ficheiro veio (0 = ObjectOutputStream), para saber o que ele guardava
+    private static void verify(InvertedIndex ix, String label, int format, List<String> errors) {
+        check(errors, ix.totalPages() == 3, label + ": totalPages " + ix.totalPages());
+        check(errors, ix.searchWord("gato").equals(Set.of(A, C)), label + ": 'gato' " + ix.searchWord("gato"));
+        check(errors, ix.searchWord("preto").equals(Set.of(A, B)), label + ": 'preto' " + ix.searchWord("preto"));
+        check(errors, ix.searchWord("gato", "preto").equals(Set.of(A)), label + ": 'gato preto' " + ix.searchWord("gato", "preto"));
+        check(errors, ix.searchWord("inexistente").isEmpty(), label + ": unknown word found");
+        check(errors, ix.getIncomingLinks(A).equals(Set.of(B)), label + ": inlinks of a " + ix.getIncomingLinks(A));
+        check(errors, ix.getIncomingLinks(C).equals(Set.of(A)), label + ": inlinks of c " + ix.getIncomingLinks(C));
+        check(errors, ix.incomingLinksCount(B) == 1, label + ": inlink count of b " + ix.incomingLinksCount(B));
+        for (String u : PAGES.keySet()) {
+            StoredPage p = ix.getPage(u);
+            if (p == null) {
+                errors.add(label + ": page " + u + " missing");
+                continue;
+            }
+            check(errors, p.title().equals(PAGES.get(u)[0]), label + ": title of " + u + " '" + p.title() + "'");
+            check(errors, p.text().equals(PAGES.get(u)[1]), label + ": text of " + u + " '" + p.text() + "'");
+            Set<String> out = new HashSet<>();
+            for (int d : p.outgoing()) out.add(ix.urlOf(d));
+            check(errors, out.equals(new HashSet<>(OUT.get(u))), label + ": outgoing of " + u + " " + out);
+            long expected = (format == 1) ? 0 : VERSION;//o VERSION 1 não guardava a versão
+            check(errors, p.version == expected, label + ": version of " + u + " " + p.version);
+        }
+        //só com posições (VERSION 4 em diante) a frase tem de estar seguida
+        if (format >= 4) {
+            check(errors, hits(ix, "\"gato preto\"") == 1, label + ": phrase \"gato preto\" " + hits(ix, "\"gato preto\""));
+            check(errors, hits(ix, "\"preto gato\"") == 0, label + ": phrase \"preto gato\" " + hits(ix, "\"preto gato\""));
+        }
+    }
+
+    //o que se exporta para outra réplica também tem de bater (termos pela ordem do texto)
+    private static void compare(InvertedIndex a, InvertedIndex b, String label, List<String> errors) {
+        Map<String, String> left = exported(a);
+        Map<String, String> right = exported(b);
+        check(errors, left.equals(right), label + ": exportPages differs " + left + " vs " + right);
+    }
+
+    private static Map<String, String> exported(InvertedIndex ix) {
+        Map<String, String> out = new TreeMap<>();
+        for (PageDTO p : ix.exportPages(PAGES.keySet())) out.put(p.url, p.version + " " + String.join(" ", p.terms));
+        return out;
+    }
+
+    private static int hits(InvertedIndex ix, String query) {
+        return ix.search(Query.parse(new String[] { query }), 10, d -> 0, 0).total();
+    }
+
+    private static InvertedIndex saveAndLoad(InvertedIndex ix, Path file) throws IOException {
+        ix.saveToDisk(file.toString());
+        InvertedIndex loaded = new InvertedIndex();
+        loaded.loadFromDisk(file.toString());
+        return loaded;
+    }
+
+    private static PageDTO page(String url, String text, long version) {
+        PageDTO p = new PageDTO(url, PAGES.get(url)[0], text, new HashSet<>(OUT.get(url)));
+        p.version = version;
+        return p;
+    }
+
+    // ---- escritor dos formatos antigos, pelo layout do comentário do IndexSegment ----
+
+    private static void writeLegacy(Path file, int format) throws IOException {
+        List<String> urls = new ArrayList<>(PAGES.keySet());
+        //termo -> docId -> posições
+        TreeMap<String, TreeMap<Integer, List<Integer>>> terms = new TreeMap<>();
+        for (int d = 0; d < urls.size(); d++) {
+            String[] words = Tokenizer.DEFAULT.terms(PAGES.get(urls.get(d))[1]);
+            for (int i = 0; i < words.length; i++) {
+                terms.computeIfAbsent(words[i], t -> new TreeMap<>()).computeIfAbsent(d, x -> new ArrayList<>()).add(i);
+            }
+        }
+        int[] header = new int[8];
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile())))) {
+            out.writeInt(IndexSegment.MAGIC);
+            out.writeInt(format);
+            for (int i = 0; i < 8; i++) out.writeInt(0);
+
+            List<int[]> table = new ArrayList<>();
+            for (int d = 0; d < urls.size(); d++) {
+                String u = urls.get(d);
+                table.add(new int[] { d, out.size() });
+                if (format >= 2) out.writeLong(VERSION);
+                if (format >= 5) out.writeInt(Tokenizer.DEFAULT.terms(PAGES.get(u)[1]).length);
+                bytes(out, PAGES.get(u)[0].getBytes(StandardCharsets.UTF_8));
+                if (format < 3) {
+                    bytes(out, PAGES.get(u)[1].getBytes(StandardCharsets.UTF_8));
+                } else {
+                    StoredPage p = StoredPage.of(VERSION, -1, PAGES.get(u)[0], PAGES.get(u)[1], new int[0], null);
+                    out.writeInt(p.textLength());
+                    bytes(out, p.bodyBytes());
+                }
+                ints(out, OUT.get(u).stream().mapToInt(urls::indexOf).sorted().toArray());
+            }
+            endSection(out, header, 0, table, true);
+
+            table = new ArrayList<>();
+            for (Map.Entry<String, TreeMap<Integer, List<Integer>>> t : terms.entrySet()) {
+                table.add(new int[] { out.size() });
+                bytes(out, t.getKey().getBytes(StandardCharsets.UTF_8));
+                ints(out, t.getValue().keySet().stream().mapToInt(Integer::intValue).toArray());
+                if (format < 4) continue;
+                List<byte[]> encoded = new ArrayList<>();
+                int[] offsets = new int[t.getValue().size()];
+                int total = 0, i = 0;
+                for (List<Integer> pos : t.getValue().values()) {
+                    byte[] e = Positions.encode(pos.stream().mapToInt(Integer::intValue).toArray(), 0, pos.size());
+                    encoded.add(e);
+                    offsets[i++] = total;
+                    total += e.length;
+                }
+                ints(out, offsets);
+                out.writeInt(total);
+                for (byte[] e : encoded) out.write(e);
+            }
+            endSection(out, header, 1, table, false);
+
+            table = new ArrayList<>();
+            for (int d = 0; d < urls.size(); d++) {
+                List<Integer> from = new ArrayList<>();
+                for (int s = 0; s < urls.size(); s++) {
+                    if (OUT.get(urls.get(s)).contains(urls.get(d))) from.add(s);
+                }
+                if (from.isEmpty()) continue;
+                table.add(new int[] { d, out.size() });
+                ints(out, from.stream().mapToInt(Integer::intValue).toArray());
+            }
+            endSection(out, header, 2, table, true);
+
+            table = new ArrayList<>();
+            for (String u : urls) {
+                table.add(new int[] { out.size() });
+                bytes(out, u.getBytes(StandardCharsets.UTF_8));
+            }
+            endSection(out, header, 3, table, false);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(8);
+            for (int h : header) raf.writeInt(h);
+        }
+    }
+
+    private static void endSection(DataOutputStream out, int[] header, int section, List<int[]> table, boolean pairs) throws IOException {
+        header[2 * section] = out.size();
+        header[2 * section + 1] = table.size();
+        for (int[] e : table) {
+            if (pairs) out.writeInt(e[0]);
+            out.writeInt(e[pairs ? 1 : 0]);
+        }
+    }
+
+    private static void bytes(DataOutputStream out, byte[] b) throws IOException {
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static void ints(DataOutputStream out, int[] a) throws IOException {
+        out.writeInt(a.length);
+        for (int v : a) out.writeInt(v);
+    }
+
+    //o ficheiro de antes dos segmentos: pages, termo -> urls, url -> urls que apontam para ele
+    private static void writeSerialized(Path file) throws IOException {
+        Map<String, PageInfo> pages = new HashMap<>();
+        Map<String, Set<String>> items = new HashMap<>();
+        Map<String, Set<String>> links = new HashMap<>();
+        for (String u : PAGES.keySet()) {
+            PageInfo p = new PageInfo(u);
+            p.title = PAGES.get(u)[0];
+            p.text = PAGES.get(u)[1];
+            p.version = VERSION;
+            p.outgoingLinks.addAll(OUT.get(u));
+            pages.put(u, p);
+            for (String w : Tokenizer.DEFAULT.terms(p.text)) items.computeIfAbsent(w, k -> new HashSet<>()).add(u);
+            for (String o : OUT.get(u)) links.computeIfAbsent(o, k -> new HashSet<>()).add(u);
+        }
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file.toFile()))) {
+            out.writeObject(pages);
+            out.writeObject(items);
+            out.writeObject(links);
+        }
+    }
+
+    private static void check(List<String> errors, boolean ok, String msg) {
+        if (!ok) errors.add(msg);
+    }
+}
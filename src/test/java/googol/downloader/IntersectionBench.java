@@ -0,0 +1,84 @@
+package googol.downloader;
+
+import java.util.Arrays;
+import java.util.Random;
+
+//latência de AND com termos de frequências muito diferentes (o caso normal: "de" + uma palavra rara)
+//compara o merge linear pela ordem da query (como era antes do PostingIntersection) com o smallest-first + galloping,
+//e verifica que os dois dão o mesmo resultado; listas geradas com seed fixa, por isso os números são comparáveis entre corridas
+//correr: java -cp target/classes:target/test-classes googol.downloader.IntersectionBench [docs] [reps]
+public class IntersectionBench {
+    public static void main(String[] args) {
+        int docs = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+        int reps = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+
+        Random rnd = new Random(42);
+        PostingList.Snapshot veryCommon = list(rnd, docs, 0.6);
+        PostingList.Snapshot common = list(rnd, docs, 0.3);
+        PostingList.Snapshot medium = list(rnd, docs, 0.01);
+        PostingList.Snapshot rare = list(rnd, docs, 0.0001);
+        System.out.println("[Bench] " + docs + " docs; df: veryCommon=" + veryCommon.size() + " common=" + common.size()
+                + " medium=" + medium.size() + " rare=" + rare.size());
+
+        run("common rare", reps, common, rare);
+        run("veryCommon common rare", reps, veryCommon, common, rare);
+        run("common medium", reps, common, medium);
+        run("veryCommon medium rare", reps, veryCommon, medium, rare);
+        run("veryCommon common", reps, veryCommon, common);
+    }
+
+    private static void run(String name, int reps, PostingList.Snapshot... lists) {
+        int[] expected = linear(lists);
+        int[] got = PostingIntersection.intersect(lists);
+        if (!Arrays.equals(expected, got)) {
+            System.out.println("[Bench] FAIL " + name + ": " + got.length + " != " + expected.length + " results");
+            System.exit(1);
+        }
+        //aquece os dois antes de medir
+        for (int i = 0; i < reps; i++) {
+            linear(lists);
+            PostingIntersection.intersect(lists);
+        }
+        long[] before = new long[reps];
+        long[] after = new long[reps];
+        for (int i = 0; i < reps; i++) {//intercalados, para o ruído da máquina cair nos dois
+            long t0 = System.nanoTime();
+            linear(lists);
+            long t1 = System.nanoTime();
+            PostingIntersection.intersect(lists);
+            long t2 = System.nanoTime();
+            before[i] = t1 - t0;
+            after[i] = t2 - t1;
+        }
+        System.out.printf("[Bench] %-24s %6d hits  linear p50 %8.1fus p99 %8.1fus  galloping p50 %8.1fus p99 %8.1fus%n",
+                name, got.length, pct(before, 0.5), pct(before, 0.99), pct(after, 0.5), pct(after, 0.99));
+    }
+
+    //o searchDocs de antes: copia a primeira lista e faz merge com as outras pela ordem da query
+    private static int[] linear(PostingList.Snapshot... lists) {
+        int[] result = Arrays.copyOf(lists[0].docs(), lists[0].size());
+        int size = result.length;
+        for (int i = 1; i < lists.length && size > 0; i++) {
+            size = PostingIntersection.mergeInto(result, size, lists[i].docs(), lists[i].size());
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private static PostingList.Snapshot list(Random rnd, int docs, double p) {
+        int[] ids = new int[(int) (docs * p * 1.1) + 16];
+        int n = 0;
+        for (int d = 0; d < docs; d++) {
+            if (rnd.nextDouble() < p) {
+                if (n == ids.length) ids = Arrays.copyOf(ids, n * 2);
+                ids[n++] = d;
+            }
+        }
+        return new PostingList.Snapshot(ids, n);
+    }
+
+    private static double pct(long[] ns, double q) {
+        long[] s = ns.clone();
+        Arrays.sort(s);
+        return s[Math.min(s.length - 1, (int) (q * s.length))] / 1000.0;
+    }
+}
@@ -0,0 +1,128 @@
+package googol.downloader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//stress do InvertedIndex: várias threads a fazer addToIndex enquanto outras fazem searchWord, como os
+//downloaders e o gateway fazem via RMI. Verifica durante (o resultado de uma pesquisa nunca encolhe e só tem
+//urls já enviados) e no fim (cada página está em todos os termos dela, incoming links e totais certos)
+//correr: java -cp target/classes:target/test-classes googol.downloader.InvertedIndexStress [writers] [readers] [pagesPerWriter]
+public class InvertedIndexStress {
+    private static final String HUB = "http://hub.test/";
+
+    public static void main(String[] args) throws Exception {
+        int writers = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int readers = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+        int perWriter = (args.length > 2) ? Integer.parseInt(args[2]) : 2000;
+
+        InvertedIndex index = new InvertedIndex();
+        Set<String> sent = ConcurrentHashMap.newKeySet();//urls cujo addToIndex já começou
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger searches = new AtomicInteger();
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> ws = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int id = w;
+            ws.add(Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perWriter; i++) {
+                        String url = url(id, i);
+                        sent.add(url);
+                        Set<String> out = new HashSet<>();
+                        out.add(HUB);
+                        if (i > 0) out.add(url(id, i - 1));
+                        index.addToIndex(url, "titulo " + word("esc", id), "comum " + word("esc", id) + " " + word("pag", id * perWriter + i), out);
+                    }
+                } catch (Exception e) {
+                    errors.add("writer " + id + ": " + e);
+                }
+            }));
+        }
+
+        List<Thread> rs = new ArrayList<>();
+        for (int r = 0; r < readers; r++) {
+            int id = r;
+            rs.add(Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                    int last = 0;
+                    while (!done.get()) {
+                        Set<String> all = index.searchWord("comum");
+                        if (all.size() < last) errors.add("reader " + id + ": result shrank from " + last + " to " + all.size());
+                        last = all.size();
+                        for (String u : all) {
+                            if (!sent.contains(u)) errors.add("reader " + id + ": unknown url " + u);
+                        }
+                        int w = id % writers;
+                        for (String u : index.searchWord("comum", word("esc", w))) {
+                            if (!u.startsWith("http://w" + w + ".test/")) errors.add("reader " + id + ": " + u + " does not belong to writer " + w);
+                        }
+                        searches.incrementAndGet();
+                        if (errors.size() > 20) return;
+                    }
+                } catch (Exception e) {
+                    errors.add("reader " + id + ": " + e);
+                }
+            }));
+        }
+
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread t : ws) t.join();
+        done.set(true);
+        for (Thread t : rs) t.join();
+        long ms = (System.nanoTime() - t0) / 1_000_000;
+
+        //estado final
+        int total = writers * perWriter;
+        check(errors, index.totalPages() >= total, "totalPages " + index.totalPages() + " < " + total);
+        check(errors, index.searchWord("comum").size() == total, "comum: " + index.searchWord("comum").size() + " != " + total);
+        check(errors, index.incomingLinksCount(HUB) == total, "hub inlinks " + index.incomingLinksCount(HUB) + " != " + total);
+        for (int w = 0; w < writers; w++) {
+            Set<String> mine = index.searchWord(word("esc", w));
+            check(errors, mine.size() == perWriter, "writer " + w + ": " + mine.size() + " pages != " + perWriter);
+            for (int i = 0; i < perWriter; i++) {
+                Set<String> one = index.searchWord(word("pag", w * perWriter + i));
+                check(errors, one.size() == 1 && one.contains(url(w, i)), "page " + url(w, i) + " found as " + one);
+                int in = index.incomingLinksCount(url(w, i));
+                check(errors, in == ((i < perWriter - 1) ? 1 : 0), "page " + url(w, i) + " has " + in + " inlinks");
+            }
+        }
+
+        System.out.println("[Stress] " + writers + " writers x " + perWriter + " pages, " + readers + " readers, "
+                + searches.get() + " searches in " + ms + "ms");
+        if (!errors.isEmpty()) {
+            for (String e : errors.subList(0, Math.min(20, errors.size()))) System.out.println("[Stress] FAIL " + e);
+            System.exit(1);
+        }
+        System.out.println("[Stress] OK");
+    }
+
+    private static void check(List<String> errors, boolean ok, String msg) {
+        if (!ok && errors.size() < 100) errors.add(msg);
+    }
+
+    private static String url(int writer, int i) {
+        return "http://w" + writer + ".test/" + i;
+    }
+
+    //só letras, para passar igual por qualquer tokenizer (sem números nem acentos)
+    private static String word(String prefix, int n) {
+        StringBuilder sb = new StringBuilder(prefix);
+        do {
+            sb.append((char) ('a' + n % 26));
+            n /= 26;
+        } while (n > 0);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,71 @@
+package googol.gateway;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+//FrontierSpill: os urls saem pela ordem em que entraram e o cursor sobrevive a restarts (com e sem close),
+//incluindo a meio de um segmento e depois de passar para o seguinte
+//correr: java -cp target/classes:target/test-classes googol.gateway.FrontierSpillCheck
+public class FrontierSpillCheck {
+    private static final int PER_SEGMENT = 100_000;//igual ao URLS_PER_SEGMENT do spill
+
+    public static void main(String[] args) throws Exception {
+        List<String> errors = new ArrayList<>();
+        Path dir = Files.createTempDirectory("spill-check");
+        int total = PER_SEGMENT + 50_000;
+
+        FrontierSpill spill = new FrontierSpill(dir);
+        for (int i = 0; i < total; i++) spill.append(url(i));
+        List<String> got = new ArrayList<>(spill.read(30_000));//a meio do primeiro segmento
+        spill.close();
+
+        //restart: continua do cursor, não repete nem perde nada
+        spill = new FrontierSpill(dir);
+        check(errors, spill.size() == total - 30_000, "after first restart size " + spill.size());
+        got.addAll(spill.read(PER_SEGMENT));//passa para o segundo segmento
+        //restart sem close (o read grava o cursor)
+        spill = new FrontierSpill(dir);
+        check(errors, spill.size() == total - 30_000 - PER_SEGMENT, "after second restart size " + spill.size());
+
+        //urls novos depois do restart vêm depois dos antigos
+        spill.append(url(total));
+        spill.append(url(total + 1));
+        List<String> rest;
+        while (!(rest = spill.read(7_000)).isEmpty()) got.addAll(rest);
+        check(errors, spill.size() == 0, "size " + spill.size() + " after draining");
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < total + 2; i++) expected.add(url(i));
+        check(errors, got.equals(expected), "got " + got.size() + " urls, expected " + expected.size() + " in order");
+        spill.close();
+
+        spill = new FrontierSpill(dir);
+        check(errors, spill.size() == 0 && spill.read(10).isEmpty(), "drained spill came back with " + spill.size() + " urls");
+        spill.close();
+        delete(dir);
+
+        if (!errors.isEmpty()) {
+            for (String e : errors) System.out.println("[SpillCheck] FAIL " + e);
+            System.exit(1);
+        }
+        System.out.println("[SpillCheck] OK");
+    }
+
+    private static String url(int i) {
+        return "http://h" + (i % 97) + ".test/página/" + i;
+    }
+
+    private static void check(List<String> errors, boolean ok, String msg) {
+        if (!ok) errors.add(msg);
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+        }
+    }
+}
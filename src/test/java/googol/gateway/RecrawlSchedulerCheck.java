@@ -0,0 +1,98 @@
+package googol.gateway;
+
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+//RecrawlScheduler: o intervalo encolhe nas páginas que mudam e cresce nas paradas (entre min e max), o due() só
+//devolve o que já está na hora e reagenda, o estado sobrevive a save/load (urls com mais de 64KB e o formato 1),
+//e com maxUrls cheio esquece urls em vez de crescer
+//correr: java -cp target/classes:target/test-classes googol.gateway.RecrawlSchedulerCheck
+public class RecrawlSchedulerCheck {
+    private static final long INITIAL = 1000, MIN = 100, MAX = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        List<String> errors = new ArrayList<>();
+        Path dir = Files.createTempDirectory("recrawl-check");
+
+        RecrawlScheduler s = scheduler(1000, dir.resolve("a.dat"));
+        long now = 0;
+        s.crawled("http://muda.test/", 1, now);
+        s.crawled("http://parada.test/", 1, now);
+        check(errors, s.fresh("http://muda.test/", now + INITIAL - 1), "fresh before its interval");
+        check(errors, !s.fresh("http://muda.test/", now + INITIAL), "still fresh after its interval");
+        check(errors, !s.fresh("http://nunca.test/", now), "unknown url is fresh");
+        check(errors, s.due(now + INITIAL - 1, 10).isEmpty(), "due before time");
+        //muda sempre -> desce até ao mínimo; nunca muda -> sobe até ao máximo
+        for (int i = 2; i < 20; i++) {
+            s.crawled("http://muda.test/", i, now);
+            s.crawled("http://parada.test/", 1, now);
+        }
+        List<String> due = s.due(now + MIN, 10);
+        check(errors, due.equals(List.of("http://muda.test/")), "due at min interval " + due);
+        check(errors, !s.due(now + MAX - 1, 10).contains("http://parada.test/"), "stable page due before max");
+        due = s.due(now + MAX, 10);
+        check(errors, due.contains("http://parada.test/"), "stable page not due at max " + due);
+        //o que saiu do due() sem report volta a sair um intervalo depois
+        check(errors, !s.due(now + MAX, 10).contains("http://parada.test/"), "issued url due again immediately");
+        Map<String, Double> st = s.stats();
+        check(errors, st.get("changed") == 18 && st.get("unchanged") == 18, "stats " + st);
+
+        //save/load: url comprido (writeUTF só aguentava 64KB) e a agenda igual
+        String longUrl = "http://longo.test/" + "a".repeat(100_000);
+        s.crawled(longUrl, 5, now);
+        s.save();
+        RecrawlScheduler t = scheduler(1000, dir.resolve("a.dat"));
+        check(errors, t.stats().get("urls") == 3, "reloaded " + t.stats().get("urls") + " urls");
+        check(errors, t.fresh(longUrl, now + INITIAL - 1), "long url lost or rescheduled on reload");
+        due = t.due(now + INITIAL, 10);
+        check(errors, due.contains(longUrl), "long url not due after reload");
+
+        //ficheiro do formato 1 (writeUTF)
+        Path v1 = dir.resolve("v1.dat");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(v1.toFile()))) {
+            out.writeInt(1);
+            out.writeInt(1);
+            out.writeUTF("http://antigo.test/");
+            out.writeLong(7);
+            out.writeLong(500);
+            out.writeLong(500);
+        }
+        RecrawlScheduler old = scheduler(1000, v1);
+        check(errors, old.fresh("http://antigo.test/", 499) && old.due(500, 10).equals(List.of("http://antigo.test/")),
+                "format 1 entry not loaded");
+
+        //limite: 1000 urls no máximo, com 5000 a passar
+        RecrawlScheduler bounded = scheduler(1000, dir.resolve("b.dat"));
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 5000; i++) bounded.crawled("http://h.test/" + i, round, ++now);
+        }
+        st = bounded.stats();
+        check(errors, st.get("urls") == 1000, "bounded scheduler tracks " + st.get("urls") + " urls");
+        check(errors, st.get("evicted") > 0, "nothing evicted");
+        due = bounded.due(Long.MAX_VALUE / 2, 100_000);
+        check(errors, due.size() == 1000 && new HashSet<>(due).size() == 1000, "due after eviction: " + due.size() + " urls");
+        bounded.save();
+        check(errors, scheduler(1000, dir.resolve("b.dat")).stats().get("urls") == 1000, "bounded reload");
+
+        if (!errors.isEmpty()) {
+            for (String e : errors) System.out.println("[RecrawlCheck] FAIL " + e);
+            System.exit(1);
+        }
+        System.out.println("[RecrawlCheck] OK");
+    }
+
+    private static RecrawlScheduler scheduler(int maxUrls, Path file) throws IOException {
+        return new RecrawlScheduler(INITIAL, MIN, MAX, 0.5, 1.5, maxUrls, file);
+    }
+
+    private static void check(List<String> errors, boolean ok, String msg) {
+        if (!ok) errors.add(msg);
+    }
+}
@@ -0,0 +1,76 @@
+package googol.gateway;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import googol.common.UrlCanonicalizer;
+
+//dedup da frontier (o que o putNewURLs faz antes de pôr na fila): formas do mesmo url dão o mesmo canónico,
+//e o SeenUrls nunca deixa passar um url já visto nesta janela (sem falsos negativos), deixa passar quase todos
+//os novos (falsos positivos dentro de ~2x a taxa pedida, mesmo com os filtros a crescer) e esquece ao fim de duas janelas
+//correr: java -cp target/classes:target/test-classes googol.gateway.SeenUrlsCheck
+public class SeenUrlsCheck {
+    public static void main(String[] args) {
+        List<String> errors = new ArrayList<>();
+
+        String[][] same = {
+                { "HTTP://Site.PT:80/a#secao", "http://site.pt/a" },
+                { "https://site.pt", "https://site.pt/" },
+                { "https://site.pt:443/x?q=1#f", "https://site.pt/x?q=1" },
+                { "  http://site.pt/b  ", "http://site.pt/b" },
+                { "http://site.pt:8080/", "http://site.pt:8080/" },
+        };
+        for (String[] s : same) {
+            String c = UrlCanonicalizer.canonicalize(s[0]);
+            check(errors, s[1].equals(c), "canonicalize(" + s[0] + ") = " + c);
+        }
+        for (String bad : new String[] { null, "", "mailto:a@b.pt", "ftp://site.pt/", "/relativo", "http://" }) {
+            check(errors, UrlCanonicalizer.canonicalize(bad) == null, "canonicalize(" + bad + ") should be null");
+        }
+
+        //filtro pequeno para obrigar a crescer
+        int n = 200_000;
+        double fpr = 0.01;
+        SeenUrls seen = new SeenUrls(10_000, fpr, 1_000);
+        int rejectedNew = 0;
+        for (int i = 0; i < n; i++) {
+            if (!seen.add(url("w1", i))) rejectedNew++;
+        }
+        int missed = 0;
+        for (int i = 0; i < n; i++) {
+            if (seen.add(url("w1", i))) missed++;
+        }
+        Map<String, Double> st = seen.stats();
+        check(errors, missed == 0, missed + " seen urls were let through again");
+        check(errors, rejectedNew < n * fpr * 2, rejectedNew + " of " + n + " new urls rejected (fpr " + fpr + ")");
+        check(errors, st.get("filters") > 1, "filters did not grow: " + st.get("filters"));
+        check(errors, st.get("fpr") < fpr * 2, "estimated fpr " + st.get("fpr"));
+
+        //o mark (putNewURL do cliente) também conta como visto
+        seen.mark("http://manual.test/");
+        check(errors, !seen.add("http://manual.test/"), "marked url accepted again");
+
+        //uma janela depois ainda está visto (filtro anterior), duas janelas depois volta a entrar
+        seen.rotate();
+        check(errors, !seen.add(url("w1", 7)), "url from the previous window accepted");
+        seen.rotate();
+        check(errors, seen.add(url("w1", 8)), "url from two windows ago still rejected");
+
+        System.out.printf("[SeenUrlsCheck] %d urls, %d new ones rejected (%.3f%%), %.0f filters, estimated fpr %.4f%%%n",
+                n, rejectedNew, 100.0 * rejectedNew / n, st.get("filters"), st.get("fpr") * 100);
+        if (!errors.isEmpty()) {
+            for (String e : errors) System.out.println("[SeenUrlsCheck] FAIL " + e);
+            System.exit(1);
+        }
+        System.out.println("[SeenUrlsCheck] OK");
+    }
+
+    private static String url(String prefix, int i) {
+        return "http://" + prefix + "-" + (i % 500) + ".test/p/" + i;
+    }
+
+    private static void check(List<String> errors, boolean ok, String msg) {
+        if (!ok) errors.add(msg);
+    }
+}